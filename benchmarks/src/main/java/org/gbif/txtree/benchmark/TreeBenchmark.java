@@ -0,0 +1,148 @@
+package org.gbif.txtree.benchmark;
+
+import org.gbif.txtree.ParseOptions;
+import org.gbif.txtree.ParsedTreeNode;
+import org.gbif.txtree.SimpleTreeNode;
+import org.gbif.txtree.Tree;
+import org.gbif.txtree.TreeCursor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the main operations on generated trees.
+ * Run with the GC profiler to see allocations, which {@link BenchmarkRunner} does by default.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class TreeBenchmark {
+
+  @Param({"100000"})
+  public int size;
+
+  @Param({"8"})
+  public int depth;
+
+  @Param({"0.2"})
+  public double synonymRatio;
+
+  @Param({"0.1"})
+  public double infosDensity;
+
+  private byte[] text;
+  private Path file;
+  private Tree<SimpleTreeNode> tree;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    text = new TreeGenerator(size, depth, synonymRatio, infosDensity, 42).generate();
+    file = Files.createTempFile("benchmark", ".txtree");
+    Files.write(file, text);
+    tree = Tree.simple(new ByteArrayInputStream(text));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public Tree<SimpleTreeNode> simple() throws IOException {
+    return Tree.simple(new ByteArrayInputStream(text));
+  }
+
+  @Benchmark
+  public Tree<SimpleTreeNode> simpleMapped() throws IOException {
+    return Tree.simple(file);
+  }
+
+  @Benchmark
+  public Tree<ParsedTreeNode> parsed() throws IOException {
+    return Tree.parsed(new ByteArrayInputStream(text));
+  }
+
+  /**
+   * Parses names on worker threads and shares the results of a name cache,
+   * compared to {@link #parsed()} which parses all names on the calling thread without a cache.
+   */
+  @Benchmark
+  public Tree<ParsedTreeNode> parsedPipeline(PipelineOptions opts) throws IOException {
+    return Tree.parsed(new ByteArrayInputStream(text), opts.options());
+  }
+
+  @Benchmark
+  public Tree.VerificationResult verify() throws IOException {
+    return Tree.verify(new ByteArrayInputStream(text));
+  }
+
+  @Benchmark
+  public Tree.VerificationResult verifyMapped() throws IOException {
+    return Tree.verify(file);
+  }
+
+  @Benchmark
+  public void iterate(Blackhole bh) {
+    for (SimpleTreeNode n : tree) {
+      bh.consume(n);
+    }
+  }
+
+  @Benchmark
+  public void cursor(Blackhole bh) {
+    TreeCursor<SimpleTreeNode> c = tree.cursor();
+    while (c.next()) {
+      bh.consume(c.node());
+      bh.consume(c.depth());
+    }
+  }
+
+  @Benchmark
+  public void print(Blackhole bh) throws IOException {
+    tree.print(new BlackholeStream(bh));
+  }
+
+  @State(Scope.Benchmark)
+  public static class PipelineOptions {
+    @Param({"1", "2", "4"})
+    public int nameParserThreads;
+
+    @Param({"0", "100000"})
+    public int nameCacheSize;
+
+    ParseOptions options() {
+      return new ParseOptions().nameParserThreads(nameParserThreads).nameCacheSize(nameCacheSize);
+    }
+  }
+
+  /**
+   * Discards all bytes, but keeps the JIT from removing the writes.
+   */
+  private static class BlackholeStream extends OutputStream {
+    private final Blackhole bh;
+
+    BlackholeStream(Blackhole bh) {
+      this.bh = bh;
+    }
+
+    @Override
+    public void write(int b) {
+      bh.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      bh.consume(b);
+      bh.consume(len);
+    }
+  }
+}
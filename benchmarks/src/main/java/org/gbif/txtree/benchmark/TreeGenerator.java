@@ -0,0 +1,136 @@
+package org.gbif.txtree.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates synthetic, valid text trees with a given number of nodes.
+ * Trees are reproducible for the same parameters and seed.
+ */
+public class TreeGenerator {
+  private static final String[] RANKS = {"kingdom", "phylum", "class", "order", "family", "genus", "species", "subspecies", "variety", "form"};
+  private static final String[] SYLLABLES = {"ab", "ies", "pin", "us", "cor", "vus", "ros", "ae", "lo", "ph", "ora", "mi", "cro", "ta", "xa", "dö", "ri", "ng"};
+  private static final String[] AUTHORS = {"L.", "Mill.", "(L.) Mill.", "Greene", "Andrews, 1905", "Hook. & Arn.", "D.Dietr.", "Döring, 2021"};
+  private final int size;
+  private final int depth;
+  private final double synonymRatio;
+  private final double infosDensity;
+  private final Random rnd;
+  private final StringBuilder sb = new StringBuilder();
+  private int count;
+
+  /**
+   * @param size the number of nodes incl synonyms
+   * @param depth the maximum number of levels of accepted names, at most 10
+   * @param synonymRatio the fraction of all nodes being synonyms
+   * @param infosDensity the fraction of nodes having infos
+   * @param seed the random seed
+   */
+  public TreeGenerator(int size, int depth, double synonymRatio, double infosDensity, long seed) {
+    if (depth < 1 || depth > RANKS.length) {
+      throw new IllegalArgumentException("Depth must be between 1 and " + RANKS.length);
+    }
+    if (synonymRatio < 0 || synonymRatio >= 1) {
+      throw new IllegalArgumentException("Synonym ratio must be at least 0 and less than 1");
+    }
+    this.size = size;
+    this.depth = depth;
+    this.synonymRatio = synonymRatio;
+    this.infosDensity = infosDensity;
+    this.rnd = new Random(seed);
+  }
+
+  /**
+   * @return the UTF8 encoded text tree
+   */
+  public byte[] generate() {
+    return generateString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  public String generateString() {
+    sb.setLength(0);
+    count = 0;
+    // synonyms per accepted name to reach the requested ratio
+    double synonymsPerName = synonymRatio / (1 - synonymRatio);
+    int level = 0;
+    while (count < size) {
+      line(level, false);
+      double syns = synonymsPerName;
+      while (count < size && rnd.nextDouble() < syns) {
+        line(level + 1, true);
+        syns -= 1;
+      }
+      double r = rnd.nextDouble();
+      if (level < depth - 1 && r < 0.6) {
+        level++;
+      } else if (r >= 0.85) {
+        level = rnd.nextInt(level + 1);
+      }
+    }
+    return sb.toString();
+  }
+
+  private void line(int level, boolean synonym) {
+    count++;
+    for (int i = 0; i < level; i++) {
+      sb.append("  ");
+    }
+    if (synonym) {
+      sb.append(rnd.nextInt(3) == 0 ? "≡" : "=");
+      if (rnd.nextInt(5) == 0) {
+        sb.append('$');
+      }
+    }
+    if (rnd.nextInt(20) == 0) {
+      sb.append('†');
+    }
+    if (rnd.nextInt(30) == 0) {
+      sb.append('?');
+    }
+    // synonyms are one level below their accepted name, but share its rank
+    int rank = synonym ? level - 1 : level;
+    sb.append(name(rank));
+    sb.append(" [").append(RANKS[rank]).append(']');
+    if (rnd.nextDouble() < infosDensity) {
+      sb.append(" {ID=").append(count);
+      sb.append(" REF=").append(word()).append(count % 100).append(',').append(word());
+      if (rnd.nextBoolean()) {
+        sb.append(" ENV=terrestrial,marine");
+      }
+      sb.append('}');
+    }
+    if (rnd.nextInt(50) == 0) {
+      sb.append(" # generated ").append(count);
+    }
+    sb.append('\n');
+  }
+
+  private String name(int rank) {
+    String genus = capitalize(word());
+    if (rank < 6) {
+      return genus + (rank == 4 ? "aceae" : "") + " " + author();
+    }
+    StringBuilder name = new StringBuilder(genus).append(' ').append(word());
+    if (rank > 6) {
+      name.append(" var. ").append(word());
+    }
+    return name.append(' ').append(author()).toString();
+  }
+
+  private String word() {
+    StringBuilder w = new StringBuilder();
+    int syllables = 2 + rnd.nextInt(3);
+    for (int i = 0; i < syllables; i++) {
+      w.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+    }
+    return w.toString();
+  }
+
+  private String author() {
+    return AUTHORS[rnd.nextInt(AUTHORS.length)];
+  }
+
+  private static String capitalize(String x) {
+    return Character.toUpperCase(x.charAt(0)) + x.substring(1);
+  }
+}
@@ -0,0 +1,139 @@
+package org.gbif.txtree;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered UTF8 output writing strings and numbers straight into a reusable byte buffer
+ * without creating intermediate strings or byte arrays.
+ * The underlying stream or channel is never closed.
+ */
+final class ByteOutput implements Flushable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private final OutputStream out;
+  private final WritableByteChannel channel;
+  private final byte[] buf = new byte[BUFFER_SIZE];
+  private final ByteBuffer bb = ByteBuffer.wrap(buf);
+  private int pos;
+
+  ByteOutput(OutputStream out) {
+    this.out = out;
+    this.channel = null;
+  }
+
+  ByteOutput(WritableByteChannel channel) {
+    this.out = null;
+    this.channel = channel;
+  }
+
+  void write(byte[] bytes, int off, int len) throws IOException {
+    while (len > 0) {
+      if (pos == buf.length) {
+        flushBuffer();
+      }
+      int n = Math.min(len, buf.length - pos);
+      System.arraycopy(bytes, off, buf, pos, n);
+      pos += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Writes a single ASCII character.
+   */
+  void write(char c) throws IOException {
+    if (pos == buf.length) {
+      flushBuffer();
+    }
+    buf[pos++] = (byte) c;
+  }
+
+  /**
+   * Writes a number in decimal ASCII digits.
+   */
+  void write(long x) throws IOException {
+    if (buf.length - pos < 20) {
+      flushBuffer();
+    }
+    if (x < 0) {
+      if (x == Long.MIN_VALUE) {
+        write(Long.toString(x));
+        return;
+      }
+      buf[pos++] = '-';
+      x = -x;
+    }
+    int start = pos;
+    do {
+      buf[pos++] = (byte) ('0' + x % 10);
+      x /= 10;
+    } while (x > 0);
+    for (int i = start, j = pos - 1; i < j; i++, j--) {
+      byte tmp = buf[i];
+      buf[i] = buf[j];
+      buf[j] = tmp;
+    }
+  }
+
+  /**
+   * Encodes a string as UTF8, replacing unpaired surrogates with '?' just as the JDK encoder does.
+   */
+  void write(String s) throws IOException {
+    int len = s.length();
+    for (int i = 0; i < len; i++) {
+      if (buf.length - pos < 4) {
+        flushBuffer();
+      }
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buf[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[pos++] = (byte) (0xC0 | (c >> 6));
+        buf[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          buf[pos++] = (byte) (0xF0 | (cp >> 18));
+          buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+          buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+          buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+          buf[pos++] = '?';
+        }
+      } else {
+        buf[pos++] = (byte) (0xE0 | (c >> 12));
+        buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (pos > 0) {
+      if (out != null) {
+        out.write(buf, 0, pos);
+      } else {
+        bb.clear().limit(pos);
+        while (bb.hasRemaining()) {
+          channel.write(bb);
+        }
+      }
+      pos = 0;
+    }
+  }
+
+  /**
+   * Writes all buffered bytes and flushes the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    if (out != null) {
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package org.gbif.txtree;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * Parses a tree in parallel by splitting the input into chunks at root level lines.
+ * Chunks are parsed into separate subtrees on a fixed thread pool and appended to the final tree in their original order,
+ * so node ids and the tree size are the same as for a sequential parse.
+ * The number of chunks held in memory is limited to twice the parallelism.
+ */
+class ChunkedParser<T extends TreeNode<T>> {
+  private final BiFunction<Long, LineLexer, T> builder;
+  private final ParseOptions options;
+
+  ChunkedParser(BiFunction<Long, LineLexer, T> builder, ParseOptions options) {
+    this.builder = builder;
+    this.options = options;
+  }
+
+  Tree<T> parse(LineSource lines) throws IOException {
+    Tree<T> tree = new Tree<>(builder);
+    ParseMetrics metrics = options.getMetrics();
+    if (metrics != null) {
+      metrics.start();
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(options.getParallelism());
+    try {
+      Deque<Future<Tree<T>>> chunks = new ArrayDeque<>();
+      // metrics of each pending chunk if enabled, merged once the chunk is done
+      Deque<ParseMetrics> chunkMetrics = new ArrayDeque<>();
+      List<String> chunk = new ArrayList<>();
+      long first = 0;
+      long row = 0;
+      long readNanos = 0;
+      long start = metrics == null ? 0 : System.nanoTime();
+      CharSequence line = lines.next();
+      while (line != null) {
+        if (metrics != null) {
+          readNanos += System.nanoTime() - start;
+        }
+        if (chunk.size() >= options.chunkLines && isRoot(line)) {
+          chunks.add(submit(pool, chunk, first, chunkMetrics, tree.shifts));
+          if (chunks.size() > 2 * options.getParallelism()) {
+            tree.append(join(chunks.poll(), chunkMetrics.poll()));
+          }
+          chunk = new ArrayList<>();
+          first = row;
+        }
+        chunk.add(line.toString());
+        row++;
+        if (metrics != null) {
+          start = System.nanoTime();
+        }
+        line = lines.next();
+      }
+      chunks.add(submit(pool, chunk, first, chunkMetrics, tree.shifts));
+      while (!chunks.isEmpty()) {
+        tree.append(join(chunks.poll(), chunkMetrics.poll()));
+      }
+      if (metrics != null) {
+        metrics.time(ParseMetrics.Phase.READ, readNanos);
+      }
+    } finally {
+      pool.shutdownNow();
+      if (metrics != null) {
+        metrics.end();
+      }
+    }
+    return tree;
+  }
+
+  private static boolean isRoot(CharSequence line) {
+    return line.length() > 0 && line.charAt(0) != ' ';
+  }
+
+  private Future<Tree<T>> submit(ExecutorService pool, List<String> lines, long first, Deque<ParseMetrics> chunkMetrics,
+                                 LineShift shifts) {
+    ParseMetrics metrics = options.getMetrics() == null ? null : new ParseMetrics();
+    if (metrics != null) {
+      chunkMetrics.add(metrics);
+    }
+    return pool.submit(() -> {
+      Tree<T> sub = new Tree<>();
+      // nodes are attached to the final tree's line shifts, so it can be updated
+      sub.shifts = shifts;
+      TreeParser<T> parser = new TreeParser<>(builder, sub.assembler(), null, first);
+      parser.lazyInfos(options.isLazyInfos());
+      parser.metrics(metrics);
+      parser.parse(lines);
+      return sub;
+    });
+  }
+
+  private Tree<T> join(Future<Tree<T>> chunk, ParseMetrics metrics) throws IOException {
+    try {
+      Tree<T> sub = chunk.get();
+      if (metrics != null) {
+        options.getMetrics().merge(metrics);
+      }
+      return sub;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing tree");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
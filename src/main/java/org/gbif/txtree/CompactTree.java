@@ -0,0 +1,551 @@
+package org.gbif.txtree;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A read only taxonomy of names kept in primitive arrays instead of node objects.
+ * It needs a fraction of the memory of a {@link Tree} and is meant for very large trees.
+ *
+ * Every node is addressed by its index in the order of the input lines.
+ * The classification is kept as parent, first child, first synonym and next sibling indices,
+ * all flags of a node in a single byte and ranks as ordinals of a per tree rank table.
+ * All names share a single UTF8 encoded byte buffer, which for the mostly latin names needs half the memory of a char buffer.
+ * Infos and comments are only kept for nodes having them, in side tables sorted by node index.
+ *
+ * Nodes can be accessed via lightweight {@link Node} views which are created on demand.
+ * A tree is limited to 2^31 lines and 2^31 bytes of names in total.
+ */
+public class CompactTree implements Iterable<CompactTree.Node> {
+  static final byte EXTINCT = 1;
+  static final byte BASIONYM = 2;
+  static final byte HOMOTYPIC = 4;
+  static final byte PROVISIONAL = 8;
+  static final byte SYNONYM = 16;
+  private static final int NONE = -1;
+
+  private int size;
+  private int firstRoot = NONE;
+  private int[] ids;
+  private int[] parent;
+  private int[] firstChild;
+  private int[] firstSynonym;
+  private int[] nextSibling;
+  private byte[] flags;
+  private short[] ranks;
+  private int[] nameStart;
+  private byte[] names;
+  private final List<String> rankTable = new ArrayList<>();
+  private final SideTable<Map<String, String[]>> infos = new SideTable<>();
+  private final SideTable<String> comments = new SideTable<>();
+
+  private CompactTree(int capacity) {
+    ids = new int[capacity];
+    parent = new int[capacity];
+    firstChild = new int[capacity];
+    firstSynonym = new int[capacity];
+    nextSibling = new int[capacity];
+    flags = new byte[capacity];
+    ranks = new short[capacity];
+    nameStart = new int[capacity + 1];
+    names = new byte[capacity * 32];
+  }
+
+  /**
+   * Builds a new compact tree by parsing the given UTF8 input stream.
+   *
+   * @param stream the input stream to parse
+   * @return the new tree instance
+   * @throws IOException if the input could not be read
+   * @throws IllegalArgumentException if the input contained was badly formatted
+   */
+  public static CompactTree parse(InputStream stream) throws IOException {
+    try (LineInput lines = LineInput.open(stream)) {
+      return parse(lines);
+    }
+  }
+
+  public static CompactTree parse(Reader reader) throws IOException {
+    return parse(new BufferedReader(reader)::readLine);
+  }
+
+  /**
+   * Builds a new compact tree by memory mapping the given UTF8 file.
+   */
+  public static CompactTree parse(Path path) throws IOException {
+    try (LineInput lines = LineInput.open(path)) {
+      return parse(lines);
+    }
+  }
+
+  private static CompactTree parse(LineSource lines) throws IOException {
+    CompactTree tree = new CompactTree(1024);
+    new Builder(tree).parse(lines);
+    tree.trim();
+    return tree;
+  }
+
+  /**
+   * Adds nodes to the tree keeping only the indices of the current parent path.
+   */
+  private static class Builder {
+    private final CompactTree tree;
+    private final TreeParser<SimpleTreeNode> parser = new TreeParser<>(null, null, null);
+    private final Map<String, Short> rankIndex = new HashMap<>();
+    private int lastRoot = NONE;
+    private int depth;
+    private int[] path = new int[32];
+    private int[] lastChild = new int[32];
+    private int[] lastSynonym = new int[32];
+
+    Builder(CompactTree tree) {
+      this.tree = tree;
+    }
+
+    void parse(LineSource lines) throws IOException {
+      CharSequence line = lines.next();
+      while (line != null) {
+        int level = parser.lex(line);
+        if (level >= 0) {
+          add(level, line);
+        }
+        line = lines.next();
+      }
+    }
+
+    private void add(int level, CharSequence line) {
+      LineLexer l = parser.lexer();
+      long row = parser.row();
+      if (row > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Tree is too large for a compact tree on line " + row);
+      }
+      // remove latest parents until we are at the right level
+      depth = Math.min(depth, level);
+      if (depth < level) {
+        throw new IllegalArgumentException("Tree is not properly indented on line " + row + ". Use 2 spaces for children: " + line);
+      }
+      boolean synonym = level > 0 && l.synonym();
+      byte f = 0;
+      if (l.flag(Tree.EXTINCT_SYMBOL)) f |= EXTINCT;
+      if (l.flag(Tree.BASIONYM_SYMBOL)) f |= BASIONYM;
+      if (l.flag(Tree.HOMOTYPIC_SYMBOL)) f |= HOMOTYPIC;
+      if (l.flag(Tree.PROVISIONAL_SYMBOL)) f |= PROVISIONAL;
+      if (synonym) f |= SYNONYM;
+
+      int n = tree.add((int) row, level == 0 ? NONE : path[level - 1], f, rank(l.rank(), row), l.name());
+      Map<String, String[]> infos = Tree.parseInfos(l);
+      if (!infos.isEmpty()) {
+        tree.infos.add(n, infos);
+      }
+      if (l.comment() != null) {
+        tree.comments.add(n, l.comment());
+      }
+
+      if (level == 0) {
+        if (lastRoot == NONE) {
+          tree.firstRoot = n;
+        } else {
+          tree.nextSibling[lastRoot] = n;
+        }
+        lastRoot = n;
+      } else if (synonym) {
+        int p = level - 1;
+        if (lastSynonym[p] == NONE) {
+          tree.firstSynonym[path[p]] = n;
+        } else {
+          tree.nextSibling[lastSynonym[p]] = n;
+        }
+        lastSynonym[p] = n;
+      } else {
+        int p = level - 1;
+        if (lastChild[p] == NONE) {
+          tree.firstChild[path[p]] = n;
+        } else {
+          tree.nextSibling[lastChild[p]] = n;
+        }
+        lastChild[p] = n;
+      }
+      push(level, n);
+    }
+
+    private void push(int level, int n) {
+      if (level == path.length) {
+        path = Arrays.copyOf(path, level * 2);
+        lastChild = Arrays.copyOf(lastChild, level * 2);
+        lastSynonym = Arrays.copyOf(lastSynonym, level * 2);
+      }
+      path[level] = n;
+      lastChild[level] = NONE;
+      lastSynonym[level] = NONE;
+      depth = level + 1;
+    }
+
+    private short rank(String rank, long row) {
+      if (rank == null) {
+        return NONE;
+      }
+      Short idx = rankIndex.get(rank);
+      if (idx == null) {
+        if (tree.rankTable.size() > Short.MAX_VALUE) {
+          throw new IllegalArgumentException("Too many distinct ranks on line " + row + ": " + rank);
+        }
+        idx = (short) tree.rankTable.size();
+        tree.rankTable.add(rank);
+        rankIndex.put(rank, idx);
+      }
+      return idx;
+    }
+  }
+
+  private int add(int id, int parentIdx, byte f, short rank, String name) {
+    if (size == ids.length) {
+      int cap = size + (size >> 1);
+      ids = Arrays.copyOf(ids, cap);
+      parent = Arrays.copyOf(parent, cap);
+      firstChild = Arrays.copyOf(firstChild, cap);
+      firstSynonym = Arrays.copyOf(firstSynonym, cap);
+      nextSibling = Arrays.copyOf(nextSibling, cap);
+      flags = Arrays.copyOf(flags, cap);
+      ranks = Arrays.copyOf(ranks, cap);
+      nameStart = Arrays.copyOf(nameStart, cap + 1);
+    }
+    byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+    int start = nameStart[size];
+    int end = start + utf8.length;
+    if (end < 0) {
+      throw new IllegalArgumentException("Tree names are too large for a compact tree on line " + id);
+    }
+    if (end > names.length) {
+      names = Arrays.copyOf(names, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(end, names.length + (long) (names.length >> 1))));
+    }
+    System.arraycopy(utf8, 0, names, start, utf8.length);
+    int n = size++;
+    ids[n] = id;
+    parent[n] = parentIdx;
+    firstChild[n] = NONE;
+    firstSynonym[n] = NONE;
+    nextSibling[n] = NONE;
+    flags[n] = f;
+    ranks[n] = rank;
+    nameStart[n + 1] = end;
+    return n;
+  }
+
+  private void trim() {
+    ids = Arrays.copyOf(ids, size);
+    parent = Arrays.copyOf(parent, size);
+    firstChild = Arrays.copyOf(firstChild, size);
+    firstSynonym = Arrays.copyOf(firstSynonym, size);
+    nextSibling = Arrays.copyOf(nextSibling, size);
+    flags = Arrays.copyOf(flags, size);
+    ranks = Arrays.copyOf(ranks, size);
+    nameStart = Arrays.copyOf(nameStart, size + 1);
+    names = Arrays.copyOf(names, nameStart[size]);
+    infos.trim();
+    comments.trim();
+  }
+
+  /**
+   * Values of a few nodes kept in arrays sorted by node index, which avoids boxed keys and hash map entries.
+   * Nodes must be added in increasing order, values are looked up by binary search.
+   */
+  private static class SideTable<V> {
+    private int[] nodes = new int[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    void add(int node, V value) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      nodes[size] = node;
+      values[size++] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int node) {
+      int idx = Arrays.binarySearch(nodes, 0, size, node);
+      return idx < 0 ? null : (V) values[idx];
+    }
+
+    void trim() {
+      nodes = Arrays.copyOf(nodes, size);
+      values = Arrays.copyOf(values, size);
+    }
+  }
+
+  private String name(int n) {
+    return new String(names, nameStart[n], nameStart[n + 1] - nameStart[n], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the total number of nodes in the tree
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * @return the node with the given index
+   * @throws IndexOutOfBoundsException if there is no such node
+   */
+  public Node get(int idx) {
+    Objects.checkIndex(idx, size);
+    return new Node(idx);
+  }
+
+  public List<Node> getRoot() {
+    return siblings(firstRoot);
+  }
+
+  private List<Node> siblings(int first) {
+    if (first == NONE) {
+      return Collections.emptyList();
+    }
+    List<Node> nodes = new ArrayList<>();
+    for (int n = first; n != NONE; n = nextSibling[n]) {
+      nodes.add(new Node(n));
+    }
+    return Collections.unmodifiableList(nodes);
+  }
+
+  /**
+   * Iterates over all nodes in the order of their lines.
+   */
+  @Override
+  public Iterator<Node> iterator() {
+    return new Iterator<>() {
+      private int idx;
+
+      @Override
+      public boolean hasNext() {
+        return idx < size;
+      }
+
+      @Override
+      public Node next() {
+        if (idx >= size) {
+          throw new NoSuchElementException();
+        }
+        return new Node(idx++);
+      }
+    };
+  }
+
+  /**
+   * Prints the entire tree to a given output, exactly as {@link Tree#print(Appendable)} does.
+   * Nodes are visited iteratively, so trees of any depth can be printed.
+   */
+  public void print(Appendable out) throws IOException {
+    Stack stack = new Stack();
+    stack.pushSiblings(firstRoot, 0);
+    while (stack.size > 0) {
+      stack.size--;
+      int n = stack.nodes[stack.size];
+      int level = stack.levels[stack.size];
+      printLine(out, n, level);
+      // synonyms are printed before the children, so they are pushed last
+      stack.pushSiblings(firstChild[n], level + 1);
+      stack.pushSiblings(firstSynonym[n], level + 1);
+    }
+  }
+
+  /**
+   * Explicit stack of the nodes still to be printed with their indentation level.
+   */
+  private class Stack {
+    private int[] nodes = new int[64];
+    private int[] levels = new int[64];
+    private int size;
+
+    /**
+     * Pushes a node and all its next siblings so that the first one is popped first.
+     */
+    void pushSiblings(int first, int level) {
+      int start = size;
+      for (int n = first; n != NONE; n = nextSibling[n]) {
+        if (size == nodes.length) {
+          nodes = Arrays.copyOf(nodes, size * 2);
+          levels = Arrays.copyOf(levels, size * 2);
+        }
+        nodes[size] = n;
+        levels[size++] = level;
+      }
+      for (int i = start, j = size - 1; i < j; i++, j--) {
+        int tmp = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = tmp;
+      }
+    }
+  }
+
+  /**
+   * Prints the tree into a given output stream using UTF8.
+   * The stream remains open and must be closed by the caller.
+   */
+  public void print(OutputStream out) throws IOException {
+    Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    print(w);
+    w.flush();
+  }
+
+  private void printLine(Appendable out, int n, int level) throws IOException {
+    for (int i = 0; i < level * 2; i++) {
+      out.append(' ');
+    }
+    byte f = flags[n];
+    if ((f & SYNONYM) != 0) {
+      out.append((f & HOMOTYPIC) != 0 ? Tree.HOMOTYPIC_SYMBOL : Tree.SYNONYM_SYMBOL);
+    }
+    if ((f & BASIONYM) != 0) {
+      out.append(Tree.BASIONYM_SYMBOL);
+    }
+    if ((f & EXTINCT) != 0) {
+      out.append(Tree.EXTINCT_SYMBOL);
+    }
+    if ((f & PROVISIONAL) != 0) {
+      out.append(Tree.PROVISIONAL_SYMBOL);
+    }
+    out.append(name(n));
+    if (ranks[n] != NONE) {
+      out.append(" [");
+      out.append(rankTable.get(ranks[n]));
+      out.append("]");
+    }
+    Map<String, String[]> nInfos = infos.get(n);
+    if (nInfos != null) {
+      out.append(" {");
+      boolean first = true;
+      for (var x : nInfos.entrySet()) {
+        if (!first) {
+          out.append(" ");
+        }
+        first = false;
+        out.append(x.getKey().toUpperCase());
+        out.append("=");
+        out.append(String.join(",", x.getValue()));
+      }
+      out.append("}");
+    }
+    out.append("\n");
+  }
+
+  /**
+   * A read only view of a single node of a compact tree.
+   * Views are cheap to create and are equal if they represent the same node of the same tree.
+   */
+  public class Node {
+    private final int idx;
+
+    private Node(int idx) {
+      this.idx = idx;
+    }
+
+    /**
+     * @return the index of the node within its tree
+     */
+    public int index() {
+      return idx;
+    }
+
+    /**
+     * @return the line number of the node
+     */
+    public long id() {
+      return ids[idx];
+    }
+
+    public String name() {
+      return CompactTree.this.name(idx);
+    }
+
+    public String rank() {
+      return ranks[idx] == NONE ? null : rankTable.get(ranks[idx]);
+    }
+
+    public boolean extinct() {
+      return (flags[idx] & EXTINCT) != 0;
+    }
+
+    public boolean basionym() {
+      return (flags[idx] & BASIONYM) != 0;
+    }
+
+    public boolean homotypic() {
+      return (flags[idx] & HOMOTYPIC) != 0;
+    }
+
+    public boolean provisional() {
+      return (flags[idx] & PROVISIONAL) != 0;
+    }
+
+    /**
+     * @return true if the node is a synonym of its parent
+     */
+    public boolean synonym() {
+      return (flags[idx] & SYNONYM) != 0;
+    }
+
+    /**
+     * @return the infos of the node, never null
+     */
+    public Map<String, String[]> infos() {
+      Map<String, String[]> nInfos = infos.get(idx);
+      return nInfos == null ? Collections.emptyMap() : Collections.unmodifiableMap(nInfos);
+    }
+
+    public String comment() {
+      return comments.get(idx);
+    }
+
+    /**
+     * @return the parent node or null for root nodes
+     */
+    public Node parent() {
+      return parent[idx] == NONE ? null : new Node(parent[idx]);
+    }
+
+    public List<Node> children() {
+      return siblings(firstChild[idx]);
+    }
+
+    public List<Node> synonyms() {
+      return siblings(firstSynonym[idx]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof CompactTree.Node)) return false;
+      Node other = (Node) o;
+      return idx == other.idx && tree() == other.tree();
+    }
+
+    @Override
+    public int hashCode() {
+      return idx;
+    }
+
+    private CompactTree tree() {
+      return CompactTree.this;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      if (extinct()) {
+        sb.append(Tree.EXTINCT_SYMBOL);
+      }
+      sb.append(name());
+      if (rank() != null) {
+        sb.append(" [");
+        sb.append(rank());
+        sb.append(']');
+      }
+      return sb.toString();
+    }
+  }
+}
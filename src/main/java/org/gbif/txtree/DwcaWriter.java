@@ -0,0 +1,230 @@
+package org.gbif.txtree;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the tab separated taxon core of a Darwin Core Archive straight from the parse stream.
+ * Use it as a {@link TreeHandler} with {@link Tree#streamSimple(Path, TreeHandler)} or any other streaming method,
+ * so the tree is never built in memory. Parent and accepted ids are taken from the current parse stack
+ * and rows are encoded into a reused byte buffer.
+ *
+ * Columns are the node id (line number), parent id, accepted id for synonyms, name incl authorship, rank,
+ * taxonomic status, the extinct and basionym flags, the comment and one column for each requested info key.
+ * Multiple info values are delimited by {@value #VALUE_DELIMITER} as declared in the meta.xml,
+ * so values may contain commas. A {@value #VALUE_DELIMITER} inside a value is replaced by a space.
+ * Provisionally accepted names get the status doubtful, homotypic synonyms the status homotypicSynonym.
+ */
+public class DwcaWriter<T extends TreeNode<T>> implements TreeHandler<T>, Flushable {
+  public static final String CORE_FILE = "taxon.txt";
+  public static final String META_FILE = "meta.xml";
+  // namespace for text tree specifics which have no Darwin Core equivalent, incl all info keys
+  public static final String TXTREE = "https://github.com/gbif/text-tree/terms/";
+  public static final char VALUE_DELIMITER = '|';
+  private static final String DWC = "http://rs.tdwg.org/dwc/terms/";
+  private static final String GBIF = "http://rs.gbif.org/terms/1.0/";
+  private static final String[] COLUMNS = {"taxonID", "parentNameUsageID", "acceptedNameUsageID", "scientificName",
+      "taxonRank", "taxonomicStatus", "isExtinct", "basionym", "taxonRemarks"};
+  private static final String[] TERMS = {DWC + "taxonID", DWC + "parentNameUsageID", DWC + "acceptedNameUsageID", DWC + "scientificName",
+      DWC + "taxonRank", DWC + "taxonomicStatus", GBIF + "isExtinct", TXTREE + "basionym", DWC + "taxonRemarks"};
+  private final ByteOutput out;
+  private final List<String> infoKeys = new ArrayList<>();
+  private long rows;
+
+  /**
+   * @param out the stream to write the core data file to, it remains open
+   * @param infoKeys info keys to be written as additional columns, e.g. ID or REF
+   */
+  public DwcaWriter(OutputStream out, List<String> infoKeys) {
+    this.out = new ByteOutput(out);
+    for (String key : infoKeys) {
+      this.infoKeys.add(key.toUpperCase(Locale.ROOT));
+    }
+  }
+
+  /**
+   * Streams a text tree file into a new, unzipped archive directory with the core data file and a meta.xml descriptor.
+   *
+   * @return the number of written taxa
+   * @throws IOException if the tree could not be read or the archive not be written
+   * @throws IllegalArgumentException if the tree was badly formatted
+   */
+  public static long export(Path tree, Path dir, List<String> infoKeys) throws IOException {
+    Files.createDirectories(dir);
+    try (OutputStream core = Files.newOutputStream(dir.resolve(CORE_FILE))) {
+      DwcaWriter<SimpleTreeNode> writer = new DwcaWriter<>(core, infoKeys);
+      try {
+        Tree.streamSimple(tree, writer);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      try (OutputStream meta = Files.newOutputStream(dir.resolve(META_FILE))) {
+        writer.writeMeta(meta);
+      }
+      return writer.rows;
+    }
+  }
+
+  /**
+   * @return the number of taxa written so far
+   */
+  public long rows() {
+    return rows;
+  }
+
+  @Override
+  public void startTree() {
+    try {
+      for (int i = 0; i < COLUMNS.length; i++) {
+        if (i > 0) {
+          out.write('\t');
+        }
+        out.write(COLUMNS[i]);
+      }
+      for (String key : infoKeys) {
+        out.write('\t');
+        out.write(key.toLowerCase(Locale.ROOT));
+      }
+      out.write('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void startNode(T node, List<T> parents) {
+    T parent = parents.isEmpty() ? null : parents.get(parents.size() - 1);
+    row(node, parent, null, node.provisional ? "doubtful" : "accepted");
+  }
+
+  @Override
+  public void synonym(T synonym, List<T> parents) {
+    row(synonym, null, parents.get(parents.size() - 1), synonym.homotypic ? "homotypicSynonym" : "synonym");
+  }
+
+  @Override
+  public void endTree() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void row(T n, T parent, T accepted, String status) {
+    try {
+      out.write(n.getId());
+      out.write('\t');
+      if (parent != null) {
+        out.write(parent.getId());
+      }
+      out.write('\t');
+      if (accepted != null) {
+        out.write(accepted.getId());
+      }
+      out.write('\t');
+      cell(n.name);
+      out.write('\t');
+      cell(n.rank);
+      out.write('\t');
+      out.write(status);
+      out.write('\t');
+      if (n.extinct) {
+        out.write("true");
+      }
+      out.write('\t');
+      if (n.basionym) {
+        out.write("true");
+      }
+      out.write('\t');
+      cell(n.comment);
+      for (String key : infoKeys) {
+        out.write('\t');
+        String[] vals = n.infos == null ? null : n.infos.get(key);
+        if (vals != null) {
+          for (int i = 0; i < vals.length; i++) {
+            if (i > 0) {
+              out.write(VALUE_DELIMITER);
+            }
+            infoCell(vals[i]);
+          }
+        }
+      }
+      out.write('\n');
+      rows++;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Writes a value replacing tabs and line breaks which would break the row.
+   */
+  private void cell(String value) throws IOException {
+    if (value != null) {
+      if (value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+        value = value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+      }
+      out.write(value);
+    }
+  }
+
+  /**
+   * Writes an info value which must not contain the value delimiter either.
+   */
+  private void infoCell(String value) throws IOException {
+    if (value != null && value.indexOf(VALUE_DELIMITER) >= 0) {
+      value = value.replace(VALUE_DELIMITER, ' ');
+    }
+    cell(value);
+  }
+
+  /**
+   * Writes all buffered rows and flushes the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Writes the meta.xml archive descriptor for the core data file.
+   * The stream remains open and must be closed by the caller.
+   */
+  public void writeMeta(OutputStream stream) throws IOException {
+    Writer w = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+    w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    w.write("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">\n");
+    w.write("  <core encoding=\"UTF-8\" fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\" fieldsEnclosedBy=\"\" ignoreHeaderLines=\"1\" rowType=\"" + DWC + "Taxon\">\n");
+    w.write("    <files>\n      <location>" + CORE_FILE + "</location>\n    </files>\n");
+    w.write("    <id index=\"0\"/>\n");
+    int idx = 0;
+    for (String term : TERMS) {
+      field(w, idx++, term);
+    }
+    for (String key : infoKeys) {
+      w.write("    <field index=\"" + idx++ + "\" term=\"" + escape(TXTREE + key.toLowerCase(Locale.ROOT))
+          + "\" delimitedBy=\"" + VALUE_DELIMITER + "\"/>\n");
+    }
+    w.write("  </core>\n</archive>\n");
+    w.flush();
+  }
+
+  private static void field(Writer w, int idx, String term) throws IOException {
+    w.write("    <field index=\"" + idx + "\" term=\"" + escape(term) + "\"/>\n");
+  }
+
+  private static String escape(String x) {
+    return x.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+}
@@ -0,0 +1,288 @@
+package org.gbif.txtree;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An immutable copy of the structure of a {@link Tree} which can be shared by any number of threads without synchronization.
+ * All state is kept in final arrays, so a frozen tree is safely published once its reference is visible to another thread.
+ *
+ * Nodes are addressed by an index and stored breadth first,
+ * so the synonyms and children of every node follow each other in a single array slice (compressed sparse rows).
+ * Child and synonym lists are unmodifiable views of these slices.
+ *
+ * The node instances are shared with the source tree, so they can be looked up by identity, e.g. by {@link TreeHashes}.
+ * Their own child and synonym lists and parent links are not used and ids are copied,
+ * so modifying or updating the source tree afterwards does not change the frozen structure.
+ * The nodes themselves remain mutable though: their lists, ids, infos and parsed names are those of the source tree.
+ * Only the accessors of the frozen tree, e.g. {@link #children(int)}, {@link #id(int)} or {@link #infos(int)}, are immutable.
+ */
+public final class FrozenTree<T extends TreeNode<T>> implements Iterable<T> {
+  private final Object[] nodes;
+  private final long[] ids;
+  private final int[] parents;
+  // the slice of the synonyms and children of node i is offsets[i] to offsets[i+1], starting with synonymCount[i] synonyms
+  private final int[] offsets;
+  private final int[] synonymCount;
+  private final int rootCount;
+  // node indices in the order they are printed
+  private final int[] order;
+  private final LongIntMap index;
+
+  FrozenTree(Tree<T> tree) {
+    int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(tree.size(), tree.getRoot().size()));
+    Object[] all = tree.getRoot().toArray(new Object[capacity]);
+    int size = tree.getRoot().size();
+    int[] par = new int[capacity];
+    int[] off = new int[capacity + 1];
+    int[] syn = new int[capacity];
+    Arrays.fill(par, 0, size, -1);
+    for (int i = 0; i < size; i++) {
+      @SuppressWarnings("unchecked")
+      T n = (T) all[i];
+      int needed = size + n.synonyms.size() + n.children.size();
+      if (needed > all.length) {
+        int cap = Math.max(needed, all.length * 2);
+        all = Arrays.copyOf(all, cap);
+        par = Arrays.copyOf(par, cap);
+        off = Arrays.copyOf(off, cap + 1);
+        syn = Arrays.copyOf(syn, cap);
+      }
+      off[i] = size;
+      syn[i] = n.synonyms.size();
+      for (T s : n.synonyms) {
+        par[size] = i;
+        all[size++] = s;
+      }
+      for (T c : n.children) {
+        par[size] = i;
+        all[size++] = c;
+      }
+    }
+    off[size] = size;
+    nodes = all.length == size ? all : Arrays.copyOf(all, size);
+    parents = par.length == size ? par : Arrays.copyOf(par, size);
+    offsets = off.length == size + 1 ? off : Arrays.copyOf(off, size + 1);
+    synonymCount = syn.length == size ? syn : Arrays.copyOf(syn, size);
+    rootCount = tree.getRoot().size();
+
+    ids = new long[size];
+    index = new LongIntMap(size);
+    for (int i = 0; i < size; i++) {
+      ids[i] = node(i).getId();
+      index.putIfAbsent(ids[i], i);
+    }
+    order = printOrder();
+  }
+
+  private int[] printOrder() {
+    int[] result = new int[nodes.length];
+    int[] stack = new int[nodes.length];
+    int top = 0;
+    for (int i = rootCount - 1; i >= 0; i--) {
+      stack[top++] = i;
+    }
+    int pos = 0;
+    while (top > 0) {
+      int i = stack[--top];
+      result[pos++] = i;
+      // synonyms come first, so they are pushed last
+      for (int c = offsets[i + 1] - 1; c >= offsets[i]; c--) {
+        stack[top++] = c;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the total number of nodes incl all synonyms
+   */
+  public int size() {
+    return nodes.length;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T node(int index) {
+    return (T) nodes[index];
+  }
+
+  /**
+   * @return the id of the node at the time the tree was frozen
+   */
+  public long id(int index) {
+    return ids[index];
+  }
+
+  /**
+   * @return an unmodifiable view of the infos of the node, never null. The value arrays are shared with the node.
+   */
+  public Map<String, String[]> infos(int index) {
+    Map<String, String[]> infos = node(index).infos;
+    return infos == null ? Collections.emptyMap() : Collections.unmodifiableMap(infos);
+  }
+
+  /**
+   * @return the index of the node with the given id or -1 if it does not exist
+   */
+  public int indexOf(long id) {
+    return index.get(id);
+  }
+
+  /**
+   * @return the node with the given id or null
+   */
+  public T byId(long id) {
+    int idx = index.get(id);
+    return idx < 0 ? null : node(idx);
+  }
+
+  /**
+   * @return the index of the parent or for synonyms their accepted name, -1 for root nodes
+   */
+  public int parent(int index) {
+    return parents[index];
+  }
+
+  public boolean isSynonym(int index) {
+    int p = parents[index];
+    return p >= 0 && index < offsets[p] + synonymCount[p];
+  }
+
+  /**
+   * @return the number of parents above the node, zero for root nodes
+   */
+  public int depth(int index) {
+    int depth = 0;
+    for (int p = parents[index]; p >= 0; p = parents[p]) {
+      depth++;
+    }
+    return depth;
+  }
+
+  public List<T> getRoot() {
+    return new Slice(0, rootCount);
+  }
+
+  int rootCount() {
+    return rootCount;
+  }
+
+  /**
+   * @return the index of the first synonym of a node
+   */
+  int synonymStart(int index) {
+    return offsets[index];
+  }
+
+  /**
+   * @return the index of the first child of a node, which is also the end of its synonyms
+   */
+  int childStart(int index) {
+    return offsets[index] + synonymCount[index];
+  }
+
+  /**
+   * @return the index after the last child of a node
+   */
+  int childEnd(int index) {
+    return offsets[index + 1];
+  }
+
+  public List<T> synonyms(int index) {
+    return new Slice(offsets[index], offsets[index] + synonymCount[index]);
+  }
+
+  public List<T> children(int index) {
+    return new Slice(offsets[index] + synonymCount[index], offsets[index + 1]);
+  }
+
+  /**
+   * @return all parents starting with the root node and ending with the direct parent
+   */
+  public List<T> classification(int index) {
+    List<T> path = new ArrayList<>();
+    for (int p = parents[index]; p >= 0; p = parents[p]) {
+      path.add(node(p));
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  /**
+   * @return an iterator over all nodes incl nested synonyms in the order they are printed
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int pos;
+
+      @Override
+      public boolean hasNext() {
+        return pos < order.length;
+      }
+
+      @Override
+      public T next() {
+        if (pos >= order.length) {
+          throw new NoSuchElementException();
+        }
+        return node(order[pos++]);
+      }
+    };
+  }
+
+  @Override
+  public Spliterator<T> spliterator() {
+    return stream().spliterator();
+  }
+
+  /**
+   * @return a sequential stream of all nodes in the same order as the iterator
+   */
+  public Stream<T> stream() {
+    return IntStream.of(order).mapToObj(this::node);
+  }
+
+  /**
+   * @return a parallel stream of all nodes which splits evenly as all nodes are kept in arrays
+   */
+  public Stream<T> parallelStream() {
+    return stream().parallel();
+  }
+
+  /**
+   * Unmodifiable view of a slice of the node array.
+   */
+  private class Slice extends AbstractList<T> implements RandomAccess {
+    private final int from;
+    private final int to;
+
+    Slice(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public T get(int index) {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + (to - from));
+      }
+      return node(from + index);
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+  }
+}
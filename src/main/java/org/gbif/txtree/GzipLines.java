@@ -0,0 +1,246 @@
+package org.gbif.txtree;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the lines of a gzip compressed UTF8 stream in a pipeline of three stages running on separate threads:
+ * one thread inflates the stream into byte blocks, a second one decodes the blocks and splits them into batches of lines
+ * and the consuming thread builds the tree from the lines.
+ * The stages are connected by bounded queues, so only a few blocks and batches are held in memory.
+ *
+ * Errors of the background threads are rethrown by {@link #next()}.
+ * Closing stops the background threads and waits for them to end, so no more bytes are read from the stream once
+ * {@link #close()} returns. The stream is closed if it is owned.
+ */
+final class GzipLines implements LineInput {
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final int BATCH_SIZE = 1024;
+  private static final int QUEUE_SIZE = 8;
+  private static final byte[] END_OF_BLOCKS = new byte[0];
+  private static final String[] END_OF_LINES = new String[0];
+  private final InputStream stream;
+  private final boolean closeStream;
+  private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private final BlockingQueue<String[]> batches = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private final Thread inflater;
+  private final Thread splitter;
+  // the first error of a background thread
+  private volatile Throwable failure;
+  private volatile boolean closed;
+  private String[] batch = new String[0];
+  private int pos;
+
+  /**
+   * @param closeStream true if the stream should be closed together with the lines
+   */
+  GzipLines(InputStream stream, boolean closeStream) {
+    this.stream = stream;
+    this.closeStream = closeStream;
+    inflater = new Thread(this::inflate, "txtree-gzip-inflater");
+    splitter = new Thread(this::split, "txtree-gzip-splitter");
+    inflater.setDaemon(true);
+    splitter.setDaemon(true);
+    inflater.start();
+    splitter.start();
+  }
+
+  private void inflate() {
+    try (GZIPInputStream in = new GZIPInputStream(new NonClosingStream(stream), BLOCK_SIZE)) {
+      while (true) {
+        byte[] block = in.readNBytes(BLOCK_SIZE);
+        if (block.length == 0) {
+          break;
+        }
+        blocks.put(block);
+      }
+    } catch (InterruptedException e) {
+      return;
+    } catch (Throwable e) {
+      if (closed) {
+        return;
+      }
+      failure = e;
+    }
+    try {
+      blocks.put(END_OF_BLOCKS);
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  private void split() {
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new BlockStream(), StandardCharsets.UTF_8));
+      String[] lines = new String[BATCH_SIZE];
+      int size = 0;
+      String line = reader.readLine();
+      while (line != null) {
+        lines[size++] = line;
+        if (size == BATCH_SIZE) {
+          batches.put(lines);
+          lines = new String[BATCH_SIZE];
+          size = 0;
+        }
+        line = reader.readLine();
+      }
+      if (size > 0) {
+        batches.put(Arrays.copyOf(lines, size));
+      }
+    } catch (InterruptedException | InterruptedIOException e) {
+      return;
+    } catch (Throwable e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    try {
+      batches.put(END_OF_LINES);
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  @Override
+  public CharSequence next() throws IOException {
+    if (pos == batch.length) {
+      if (batch == END_OF_LINES) {
+        return null;
+      }
+      try {
+        batch = batches.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading compressed tree");
+      }
+      pos = 0;
+      if (batch == END_OF_LINES) {
+        Throwable e = failure;
+        if (e instanceof IOException) {
+          throw new IOException("Failed to read compressed tree", e);
+        } else if (e instanceof UncheckedIOException) {
+          throw new IOException("Failed to read compressed tree", e.getCause());
+        } else if (e instanceof RuntimeException) {
+          throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+          throw (Error) e;
+        }
+        return null;
+      }
+    }
+    return batch[pos++];
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    inflater.interrupt();
+    splitter.interrupt();
+    try {
+      if (closeStream) {
+        stream.close();
+      }
+    } finally {
+      // a read in progress is not interruptible, wait for it before handing the stream back to the caller
+      try {
+        inflater.join();
+        splitter.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while closing compressed tree");
+      }
+    }
+  }
+
+  /**
+   * Input stream over the inflated blocks of the queue.
+   */
+  private class BlockStream extends InputStream {
+    private byte[] block = new byte[0];
+    private int idx;
+
+    private boolean fill() throws IOException {
+      if (block == END_OF_BLOCKS) {
+        return false;
+      }
+      try {
+        block = blocks.take();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      idx = 0;
+      return block != END_OF_BLOCKS;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (idx == block.length && !fill()) {
+        return -1;
+      }
+      return block[idx++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (idx == block.length && !fill()) {
+        return -1;
+      }
+      int n = Math.min(len, block.length - idx);
+      System.arraycopy(block, idx, b, off, n);
+      idx += n;
+      return n;
+    }
+  }
+
+  /**
+   * Keeps the underlying stream open when the gzip stream is closed, so the caller stays in charge of it.
+   * Stops reading from the underlying stream once the lines are closed.
+   */
+  private class NonClosingStream extends FilterInputStream {
+    NonClosingStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      checkOpen();
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      checkOpen();
+      return super.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      checkOpen();
+      return super.skip(n);
+    }
+
+    private void checkOpen() throws IOException {
+      if (closed) {
+        throw new InterruptedIOException("Compressed tree closed");
+      }
+    }
+
+    @Override
+    public void close() {
+      // closed by the owner
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.gbif.txtree;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Infos of a node which keep the raw text from the curly brackets and are only decoded on first access,
+ * see {@link ParseOptions#lazyInfos(boolean)}.
+ * Decoding uses {@link Tree#parseInfos(String)}, so the decoded map is exactly the same as for eagerly parsed infos.
+ * The raw text is released once decoded. Decoding is thread safe.
+ */
+final class LazyInfos extends AbstractMap<String, String[]> {
+  private String raw;
+  private volatile Map<String, String[]> decoded;
+
+  LazyInfos(String raw) {
+    this.raw = raw;
+  }
+
+  private Map<String, String[]> decoded() {
+    Map<String, String[]> map = decoded;
+    if (map == null) {
+      synchronized (this) {
+        map = decoded;
+        if (map == null) {
+          map = Tree.parseInfos(raw);
+          decoded = map;
+          raw = null;
+        }
+      }
+    }
+    return map;
+  }
+
+  boolean isDecoded() {
+    return decoded != null;
+  }
+
+  /**
+   * @return true only if the infos have been decoded and are empty.
+   * Lazy infos are only created for raw text containing at least one info, see {@link Tree#hasInfos(String)},
+   * so they are considered not empty without decoding them.
+   */
+  boolean isKnownEmpty() {
+    Map<String, String[]> map = decoded;
+    return map != null && map.isEmpty();
+  }
+
+  @Override
+  public Set<Entry<String, String[]>> entrySet() {
+    return decoded().entrySet();
+  }
+
+  @Override
+  public int size() {
+    return decoded().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return decoded().isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return decoded().containsKey(key);
+  }
+
+  @Override
+  public String[] get(Object key) {
+    return decoded().get(key);
+  }
+
+  @Override
+  public String[] put(String key, String[] value) {
+    return decoded().put(key, value);
+  }
+
+  @Override
+  public String[] remove(Object key) {
+    return decoded().remove(key);
+  }
+}
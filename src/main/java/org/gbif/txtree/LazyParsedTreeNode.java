@@ -0,0 +1,56 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.ParsedName;
+import org.gbif.nameparser.api.Rank;
+
+import java.util.Map;
+
+/**
+ * Represents a node in a taxonomic tree that parses its name with the GBIF name parser only when first asked for.
+ * The parsed name is memoized and safe to be accessed from several threads.
+ * Names that cannot be parsed are logged on first access, just as for {@link ParsedTreeNode}.
+ *
+ * Other than for {@link ParsedTreeNode} the rank is always the verbatim rank,
+ * even if the name cannot be parsed.
+ */
+public class LazyParsedTreeNode extends TreeNode<LazyParsedTreeNode> {
+  private final Rank verbatimRank;
+  private volatile boolean parsed;
+  private ParsedName parsedName;
+
+  private static String rankOf(Rank rank) {
+    return rank == null || rank == Rank.UNRANKED ? null : rank.name().toLowerCase();
+  }
+
+  public LazyParsedTreeNode(long id, String name, Rank rank) {
+    super(id, name, rankOf(rank), false, false, false, false);
+    this.verbatimRank = rank;
+  }
+
+  public LazyParsedTreeNode(long id, String name, Rank rank, boolean extinct, boolean isBasionym, boolean homotypic, boolean provisional, Map<String, String[]> infos, String comment) {
+    super(id, name, rankOf(rank), extinct, isBasionym, homotypic, provisional, infos, comment);
+    this.verbatimRank = rank;
+  }
+
+  /**
+   * @return the parsed name or null if the name cannot be parsed
+   */
+  public ParsedName getParsedName() {
+    if (!parsed) {
+      synchronized (this) {
+        if (!parsed) {
+          parsedName = Tree.parseNameOrNull(name, verbatimRank, null);
+          parsed = true;
+        }
+      }
+    }
+    return parsedName;
+  }
+
+  /**
+   * @return true if the name has been parsed already
+   */
+  public boolean isParsed() {
+    return parsed;
+  }
+}
@@ -0,0 +1,65 @@
+package org.gbif.txtree;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable, growable line of chars.
+ * Substrings are created as plain strings without copying the entire line first.
+ */
+final class LineBuffer implements CharSequence {
+  char[] chars = new char[256];
+  // chars written so far end at the position of the buffer
+  CharBuffer out = CharBuffer.wrap(chars);
+
+  void clear() {
+    out.clear();
+  }
+
+  void append(char[] src, int offset, int length) {
+    ensureCapacity(out.position() + length);
+    out.put(src, offset, length);
+  }
+
+  void ensureCapacity(int capacity) {
+    while (chars.length < capacity) {
+      grow();
+    }
+  }
+
+  /**
+   * Doubles the buffer keeping all chars written so far.
+   */
+  void grow() {
+    int pos = out.position();
+    chars = Arrays.copyOf(chars, chars.length * 2);
+    out = CharBuffer.wrap(chars);
+    out.position(pos);
+  }
+
+  @Override
+  public int length() {
+    return out.position();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index >= out.position()) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    return chars[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > out.position() || start > end) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + out.position());
+    }
+    return new String(chars, start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(chars, 0, out.position());
+  }
+}
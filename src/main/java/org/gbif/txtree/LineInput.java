@@ -0,0 +1,60 @@
+package org.gbif.txtree;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Lines of a text tree file or stream which need to be closed after reading.
+ * Gzip compressed input is detected by its magic bytes and decompressed transparently.
+ */
+interface LineInput extends LineSource, Closeable {
+  int GZIP_MAGIC = 0x8b1f;
+
+  /**
+   * Opens a file, memory mapping plain text files and decompressing gzip files in a {@link GzipLines} pipeline.
+   */
+  static LineInput open(Path path) throws IOException {
+    if (isGzip(path)) {
+      return new GzipLines(Files.newInputStream(path), true);
+    }
+    return new MappedLines(path);
+  }
+
+  /**
+   * Reads the lines of a UTF8 stream, decompressing gzip streams in a {@link GzipLines} pipeline.
+   * Closing the lines does not close the stream.
+   */
+  static LineInput open(InputStream stream) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(stream);
+    in.mark(2);
+    int magic = in.read() | (in.read() << 8);
+    in.reset();
+    if (magic == GZIP_MAGIC) {
+      return new GzipLines(in, false);
+    }
+    ReaderLines lines = new ReaderLines(new InputStreamReader(in, StandardCharsets.UTF_8));
+    return new LineInput() {
+      @Override
+      public CharSequence next() throws IOException {
+        return lines.next();
+      }
+
+      @Override
+      public void close() {
+        // the stream is owned by the caller
+      }
+    };
+  }
+
+  static boolean isGzip(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      return (in.read() | (in.read() << 8)) == GZIP_MAGIC;
+    }
+  }
+}
@@ -0,0 +1,332 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.Rank;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hand written lexer for a single line of a text tree.
+ * It scans a line once and produces exactly the same parts as the reference regular expression of the line grammar,
+ * see LineLexerTest, but resolves the choice points of the regex (lazy name, optional rank, infos and comment) directly
+ * instead of backtracking over the entire line for long names and authorships.
+ *
+ * A lexer instance is reused for all lines of a tree and is not thread safe.
+ * The parts are only valid until the next call to {@link #lex(CharSequence)}.
+ */
+final class LineLexer {
+  // shares ranks, info keys and values between the lines of a single tree
+  private final StringCache strings = new StringCache(1024);
+  private final Map<String, Rank> ranks = new HashMap<>();
+  // optional metrics for the node builders
+  ParseMetrics metrics;
+  // whether node builders should decode infos only on first access
+  boolean lazyInfos;
+  private CharSequence line;
+  private int len;
+  // end of the line ignoring a single final line terminator, i.e. where the regex $ matches
+  private int end;
+  // start of the trailing whitespace before end
+  private int trailStart;
+  private int indentEnd;
+  private int nameStart;
+  private int nameEnd;
+  private int rankStart;
+  private int rankEnd;
+  private int infosStart;
+  private int infosEnd;
+  private int commentStart;
+  private int commentEnd;
+
+  /**
+   * Lexes a new line, replacing all previous parts.
+   * @param line a single line without line terminators
+   * @return true if the line is a valid tree line
+   */
+  boolean lex(CharSequence line) {
+    this.line = line;
+    len = line.length();
+    end = len;
+    if (end > 1 && line.charAt(end - 2) == '\r' && line.charAt(end - 1) == '\n') {
+      end -= 2;
+    } else if (end > 0 && isLineTerminator(line.charAt(end - 1))) {
+      end--;
+    }
+    trailStart = end;
+    while (trailStart > 0 && isSpace(line.charAt(trailStart - 1))) {
+      trailStart--;
+    }
+
+    // indentation with pairs of spaces. An odd space can neither start the flags nor the name
+    int i = 0;
+    while (i < len && line.charAt(i) == ' ') {
+      i++;
+    }
+    if (i % 2 != 0) {
+      return false;
+    }
+    indentEnd = i;
+
+    // name prefix symbols followed by optional spaces
+    int b = i;
+    while (b < len && isFlag(line.charAt(b))) {
+      b++;
+    }
+    int c = b;
+    while (b > i && c < len && line.charAt(c) == ' ') {
+      c++;
+    }
+    if (name(c)) {
+      return true;
+    }
+    // give back flag symbols to the name one by one, like the regex would
+    for (int s = b - 1; s >= i; s--) {
+      if (name(s)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tries to match the lazy name starting at s followed by the optional rank, infos and comment.
+   */
+  private boolean name(int s) {
+    if (s >= len || isSpace(line.charAt(s))) {
+      return false;
+    }
+    // the name has at least 2 code points
+    int p = next(s);
+    if (p >= len || isTab(line.charAt(p))) {
+      return false;
+    }
+    p = next(p);
+    while (true) {
+      if (tail(p)) {
+        nameStart = s;
+        nameEnd = p;
+        return true;
+      }
+      if (p >= len || isTab(line.charAt(p))) {
+        return false;
+      }
+      p = next(p);
+    }
+  }
+
+  /**
+   * Matches the optional rank, infos and comment at position x up to the end of the line.
+   */
+  private boolean tail(int x) {
+    rankStart = -1;
+    infosStart = -1;
+    commentStart = -1;
+    if (x < len && !isSpace(line.charAt(x))) {
+      // only the end of the line can follow directly after a name
+      return x >= end;
+    }
+    // rank
+    if (x + 1 < len && line.charAt(x) == ' ' && line.charAt(x + 1) == '[') {
+      int r = x + 2;
+      while (r < len && isRankChar(line.charAt(r))) {
+        r++;
+      }
+      if (r > x + 2 && r < len && line.charAt(r) == ']') {
+        if (infos(r + 1) || comment(r + 1) || r + 1 >= trailStart) {
+          rankStart = x + 2;
+          rankEnd = r;
+          return true;
+        }
+      }
+    }
+    return infos(x) || comment(x) || x >= trailStart;
+  }
+
+  private boolean infos(int x) {
+    if (x >= len || line.charAt(x) != ' ') {
+      return false;
+    }
+    int q = x + 1;
+    while (q < len && line.charAt(q) == ' ') {
+      q++;
+    }
+    if (q >= len || line.charAt(q) != '{') {
+      return false;
+    }
+    // the content cannot contain tabs, but can contain curly brackets. The last closing one wins
+    int t = q + 1;
+    while (t < len && !isTab(line.charAt(t))) {
+      t++;
+    }
+    for (int c = t - 1; c > q; c--) {
+      if (line.charAt(c) == '}' && (comment(c + 1) || c + 1 >= trailStart)) {
+        infosStart = q + 1;
+        infosEnd = c;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean comment(int x) {
+    if (x >= len || !isSpace(line.charAt(x))) {
+      return false;
+    }
+    int z = x + 1;
+    while (z < len && isSpace(line.charAt(z))) {
+      z++;
+    }
+    if (z >= len || line.charAt(z) != '#') {
+      return false;
+    }
+    int cs = z + 1;
+    while (cs < end && isSpace(line.charAt(cs))) {
+      cs++;
+    }
+    int ce = end;
+    for (int k = cs; k < end; k++) {
+      if (isLineTerminator(line.charAt(k))) {
+        // the comment stops at a line terminator which can only be followed by whitespace
+        if (k < trailStart) {
+          return false;
+        }
+        ce = k;
+        break;
+      }
+    }
+    commentStart = Math.min(cs, ce);
+    commentEnd = ce;
+    return true;
+  }
+
+  private int next(int p) {
+    if (Character.isHighSurrogate(line.charAt(p)) && p + 1 < len && Character.isLowSurrogate(line.charAt(p + 1))) {
+      return p + 2;
+    }
+    return p + 1;
+  }
+
+  /**
+   * @return the length of the indentation in characters
+   */
+  int indent() {
+    return indentEnd;
+  }
+
+  /**
+   * @return the raw name prefix symbols incl trailing spaces or null
+   */
+  String flags() {
+    return nameStart > indentEnd ? substring(indentEnd, nameStart) : null;
+  }
+
+  /**
+   * @return true if the name prefix symbols contain the given symbol
+   */
+  boolean flag(String symbol) {
+    char s = symbol.charAt(0);
+    for (int i = indentEnd; i < nameStart; i++) {
+      if (line.charAt(i) == s) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the name prefix symbols flag a synonym
+   */
+  boolean synonym() {
+    return flag(Tree.SYNONYM_SYMBOL) || flag(Tree.SYNONYM_OLD_SYMBOL) || flag(Tree.HOMOTYPIC_SYMBOL);
+  }
+
+  /**
+   * @return the trimmed name incl authorship
+   */
+  String name() {
+    int s = nameStart;
+    int e = nameEnd;
+    while (s < e && line.charAt(s) <= ' ') {
+      s++;
+    }
+    while (e > s && line.charAt(e - 1) <= ' ') {
+      e--;
+    }
+    return substring(s, e);
+  }
+
+  /**
+   * @return the trimmed rank or null if not given or blank
+   */
+  String rank() {
+    if (rankStart < 0) {
+      return null;
+    }
+    int s = rankStart;
+    int e = rankEnd;
+    while (s < e && line.charAt(s) == ' ') {
+      s++;
+    }
+    while (e > s && line.charAt(e - 1) == ' ') {
+      e--;
+    }
+    return s == e ? null : strings.get(line, s, e);
+  }
+
+  /**
+   * @return the rank enum of the trimmed rank or null if not given or blank
+   * @throws IllegalArgumentException if the rank is unknown
+   */
+  Rank parsedRank() {
+    String r = rank();
+    return r == null ? null : ranks.computeIfAbsent(r, Tree::parseRank);
+  }
+
+  /**
+   * @return the cache to share equal strings between the lines of a tree
+   */
+  StringCache strings() {
+    return strings;
+  }
+
+  /**
+   * @return the raw infos without curly brackets or null
+   */
+  String infos() {
+    return infosStart < 0 ? null : substring(infosStart, infosEnd);
+  }
+
+  /**
+   * @return the comment or null
+   */
+  String comment() {
+    return commentStart < 0 ? null : substring(commentStart, commentEnd);
+  }
+
+  private String substring(int start, int end) {
+    return line.subSequence(start, end).toString();
+  }
+
+  private static boolean isFlag(char c) {
+    return c == '=' || c == '≡' || c == '$' || c == '†' || c == '?' || c == '*';
+  }
+
+  private static boolean isRankChar(char c) {
+    return (c >= 'a' && c <= 'z') || c == ' ' || c == '_' || c == '-';
+  }
+
+  // characters excluded from names, infos and comments by the line grammar
+  private static boolean isTab(char c) {
+    return c == '\t' || c == '\n' || c == '\r';
+  }
+
+  // regex \s
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  // line terminators not matched by the regex dot
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+}
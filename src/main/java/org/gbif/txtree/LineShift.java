@@ -0,0 +1,30 @@
+package org.gbif.txtree;
+
+/**
+ * A link in the chain of line shifts caused by incremental updates of a tree, see {@link TreeUpdater}.
+ * Every attached node refers to the last shift its line number is valid for.
+ * Adding or removing lines therefore only appends a new link instead of visiting all following nodes,
+ * and the current line of a node is resolved lazily by applying all later links, see {@link TreeNode#getId()}.
+ */
+final class LineShift {
+  // lines after this one are moved by delta
+  private final long after;
+  private final long delta;
+  volatile LineShift next;
+
+  /**
+   * Creates the first link of a new tree which does not move any line.
+   */
+  LineShift() {
+    this(Long.MAX_VALUE, 0);
+  }
+
+  LineShift(long after, long delta) {
+    this.after = after;
+    this.delta = delta;
+  }
+
+  long apply(long line) {
+    return line > after ? line + delta : line;
+  }
+}
@@ -0,0 +1,16 @@
+package org.gbif.txtree;
+
+import java.io.IOException;
+
+/**
+ * Supplies the lines of a text tree one by one, e.g. {@link java.io.BufferedReader#readLine()}.
+ */
+@FunctionalInterface
+interface LineSource {
+
+  /**
+   * @return the next line without line terminators or null at the end of the input.
+   * The returned sequence may be reused for the following line.
+   */
+  CharSequence next() throws IOException;
+}
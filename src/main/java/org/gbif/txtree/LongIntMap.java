@@ -0,0 +1,86 @@
+package org.gbif.txtree;
+
+import java.util.Arrays;
+
+/**
+ * Small open addressing hash map from primitive longs to non negative ints.
+ * Needs about 12 bytes per slot and no objects per entry.
+ */
+final class LongIntMap {
+  private static final int MISSING = -1;
+  private long[] keys;
+  private int[] values;
+  private int size;
+  private int mask;
+
+  LongIntMap(int expectedSize) {
+    int cap = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+    keys = new long[cap];
+    values = new int[cap];
+    Arrays.fill(values, MISSING);
+    mask = cap - 1;
+  }
+
+  /**
+   * @return the value for the key or -1 if the key does not exist
+   */
+  int get(long key) {
+    int i = slot(key);
+    while (values[i] != MISSING) {
+      if (keys[i] == key) {
+        return values[i];
+      }
+      i = (i + 1) & mask;
+    }
+    return MISSING;
+  }
+
+  /**
+   * Adds a new key unless it already exists.
+   * @param value a non negative value
+   * @return true if the key was added
+   */
+  boolean putIfAbsent(long key, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative value " + value);
+    }
+    if ((size + 1) * 2 > keys.length) {
+      rehash();
+    }
+    int i = slot(key);
+    while (values[i] != MISSING) {
+      if (keys[i] == key) {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    size++;
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    Arrays.fill(values, MISSING);
+    mask = keys.length - 1;
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != MISSING) {
+        putIfAbsent(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package org.gbif.txtree;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a memory mapped UTF8 file.
+ * Line terminators are searched in the raw bytes and each line is decoded into a single reusable char buffer,
+ * so reading lines allocates no objects.
+ * Lines are split at \n, \r or \r\n and malformed bytes are replaced, just as {@link java.io.BufferedReader#readLine()}
+ * over an {@link java.io.InputStreamReader} does.
+ *
+ * Files larger than 2GB are mapped in consecutive windows.
+ * Mapped windows are released by the garbage collector, closing only closes the file channel.
+ */
+final class MappedLines implements LineInput {
+  private static final int WINDOW = 1 << 30;
+  private final FileChannel channel;
+  private final long size;
+  private final int window;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final LineBuffer line = new LineBuffer();
+  private MappedByteBuffer buf;
+  // file offset of the current window
+  private long offset;
+
+  MappedLines(Path path) throws IOException {
+    this(path, WINDOW);
+  }
+
+  /**
+   * @param window the maximum number of bytes to map at once
+   */
+  MappedLines(Path path, int window) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.size = channel.size();
+    this.window = window;
+    map(0);
+  }
+
+  private void map(long pos) throws IOException {
+    offset = pos;
+    buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(window, size - pos));
+  }
+
+  @Override
+  public CharSequence next() throws IOException {
+    if (!buf.hasRemaining()) {
+      if (offset + buf.limit() >= size) {
+        return null;
+      }
+      map(offset + buf.limit());
+    }
+    decoder.reset();
+    line.clear();
+    int start = buf.position();
+    int i = start;
+    boolean ascii = true;
+    while (true) {
+      int limit = buf.limit();
+      while (i < limit) {
+        byte b = buf.get(i);
+        if (b == '\n' || b == '\r') {
+          if (ascii) {
+            copy(start, i);
+          } else {
+            decode(start, i, true);
+          }
+          buf.position(i + 1);
+          if (b == '\r') {
+            skipNewline();
+          }
+          return line;
+        }
+        ascii &= b >= 0;
+        i++;
+      }
+      if (offset + limit >= size) {
+        decode(start, limit, true);
+        buf.position(limit);
+        return line;
+      }
+      // the line continues in the next window, keep incomplete characters for it
+      int consumed = decode(start, limit, false);
+      ascii = false;
+      map(offset + consumed);
+      i = limit - consumed;
+      start = 0;
+    }
+  }
+
+  private void skipNewline() throws IOException {
+    if (!buf.hasRemaining() && offset + buf.limit() < size) {
+      map(offset + buf.limit());
+    }
+    if (buf.hasRemaining() && buf.get(buf.position()) == '\n') {
+      buf.position(buf.position() + 1);
+    }
+  }
+
+  /**
+   * Copies ASCII only bytes between start and end into the line buffer.
+   */
+  private void copy(int start, int end) {
+    line.ensureCapacity(end - start);
+    char[] chars = line.chars;
+    for (int i = start, j = 0; i < end; i++, j++) {
+      chars[j] = (char) buf.get(i);
+    }
+    line.out.position(end - start);
+  }
+
+  /**
+   * Decodes the bytes between start and end into the line buffer.
+   * @return the position of the first byte not decoded yet
+   */
+  private int decode(int start, int end, boolean endOfLine) {
+    int limit = buf.limit();
+    buf.limit(end).position(start);
+    while (true) {
+      CoderResult cr = decoder.decode(buf, line.out, endOfLine);
+      if (cr.isOverflow()) {
+        line.grow();
+        continue;
+      }
+      if (endOfLine && decoder.flush(line.out).isOverflow()) {
+        line.grow();
+        continue;
+      }
+      break;
+    }
+    int pos = buf.position();
+    buf.limit(limit);
+    return pos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
@@ -0,0 +1,191 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.ParsedName;
+import org.gbif.nameparser.api.Rank;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a parsed tree while the names are parsed by a pool of worker threads.
+ * The calling thread reads and lexes all lines and sends their names in batches to the workers.
+ * Finished batches are turned into nodes and added to the tree in their original order,
+ * so the resulting tree and any parsing errors are the same as for a sequential parse.
+ */
+class NameParserPipeline {
+  private static final int BATCH_SIZE = 1000;
+  private final int threads;
+  private final ParsedNameCache cache;
+  private final ParseMetrics metrics;
+  private final boolean lazyInfos;
+  private final Deque<Batch> batches = new ArrayDeque<>();
+  private TreeParser<ParsedTreeNode> parser;
+
+  /**
+   * A lexed line waiting for its parsed name.
+   */
+  private static class PendingNode {
+    final long row;
+    final int level;
+    final boolean synonym;
+    final boolean extinct;
+    final boolean basionym;
+    final boolean homotypic;
+    final boolean provisional;
+    final String name;
+    final Rank rank;
+    final Map<String, String[]> infos;
+    final String comment;
+    final String line;
+
+    PendingNode(long row, int level, LineLexer l, String line) {
+      this.row = row;
+      this.level = level;
+      this.synonym = l.synonym();
+      this.homotypic = l.flag(Tree.HOMOTYPIC_SYMBOL);
+      this.basionym = l.flag(Tree.BASIONYM_SYMBOL);
+      this.extinct = l.flag(Tree.EXTINCT_SYMBOL);
+      this.provisional = l.flag(Tree.PROVISIONAL_SYMBOL);
+      this.name = l.name();
+      this.rank = l.parsedRank();
+      this.infos = Tree.parseInfos(l);
+      this.comment = l.comment();
+      this.line = line;
+    }
+  }
+
+  private static class Batch {
+    final List<PendingNode> nodes;
+    final Future<ParsedName[]> names;
+    // metrics of the worker parsing the names
+    final ParseMetrics metrics;
+
+    Batch(List<PendingNode> nodes, Future<ParsedName[]> names, ParseMetrics metrics) {
+      this.nodes = nodes;
+      this.names = names;
+      this.metrics = metrics;
+    }
+  }
+
+  NameParserPipeline(ParseOptions options, ParsedNameCache cache) {
+    this.threads = options.getNameParserThreads();
+    this.cache = cache;
+    this.metrics = options.getMetrics();
+    this.lazyInfos = options.isLazyInfos();
+  }
+
+  Tree<ParsedTreeNode> parse(LineSource lines) throws IOException {
+    Tree<ParsedTreeNode> tree = new Tree<>();
+    parser = new TreeParser<>(null, tree.assembler(), null);
+    parser.lazyInfos(lazyInfos);
+    if (metrics != null) {
+      metrics.start();
+      parser.metrics(metrics);
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<PendingNode> batch = new ArrayList<>(BATCH_SIZE);
+      long start = metrics == null ? 0 : System.nanoTime();
+      CharSequence line = lines.next();
+      while (line != null) {
+        PendingNode pn;
+        try {
+          long nested = 0;
+          if (metrics != null) {
+            metrics.line(line, System.nanoTime() - start);
+            start = System.nanoTime();
+            nested = metrics.nestedNanos();
+          }
+          int level = parser.lex(line);
+          pn = level < 0 ? null : new PendingNode(parser.row(), level, parser.lexer(), line.toString());
+          if (metrics != null) {
+            metrics.time(ParseMetrics.Phase.LEX, System.nanoTime() - start - (metrics.nestedNanos() - nested));
+          }
+        } catch (IllegalArgumentException e) {
+          // report errors in earlier lines first
+          submit(pool, batch);
+          drain(0);
+          throw e;
+        }
+        if (pn != null) {
+          batch.add(pn);
+          if (batch.size() == BATCH_SIZE) {
+            submit(pool, batch);
+            batch = new ArrayList<>(BATCH_SIZE);
+            drain(2 * threads);
+          }
+        }
+        if (metrics != null) {
+          start = System.nanoTime();
+        }
+        line = lines.next();
+      }
+      submit(pool, batch);
+      drain(0);
+      parser.end();
+    } finally {
+      pool.shutdownNow();
+      if (metrics != null) {
+        metrics.end();
+      }
+    }
+    return tree;
+  }
+
+  private void submit(ExecutorService pool, List<PendingNode> nodes) {
+    if (!nodes.isEmpty()) {
+      ParseMetrics batchMetrics = metrics == null ? null : new ParseMetrics();
+      batches.add(new Batch(nodes, pool.submit(() -> {
+        ParsedName[] names = new ParsedName[nodes.size()];
+        int idx = 0;
+        for (PendingNode n : nodes) {
+          names[idx++] = Tree.parseNameOrNull(n.name, n.rank, cache, batchMetrics);
+        }
+        return names;
+      }), batchMetrics));
+    }
+  }
+
+  /**
+   * Adds the nodes of the oldest batches to the tree until at most max batches are pending.
+   */
+  private void drain(int max) throws IOException {
+    while (batches.size() > max) {
+      Batch b = batches.poll();
+      ParsedName[] names = await(b.names);
+      if (b.metrics != null) {
+        metrics.merge(b.metrics);
+      }
+      int idx = 0;
+      for (PendingNode n : b.nodes) {
+        ParsedTreeNode node = new ParsedTreeNode(n.row, n.name, names[idx++], n.extinct, n.basionym, n.homotypic, n.provisional, n.infos, n.comment);
+        parser.add(node, n.level, n.synonym, n.row, n.line);
+      }
+    }
+  }
+
+  private static ParsedName[] await(Future<ParsedName[]> names) throws IOException {
+    try {
+      return names.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing names");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package org.gbif.txtree;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event emitted at the end of each parse with {@link ParseMetrics}.
+ */
+@Name("org.gbif.txtree.Parse")
+@Label("Text Tree Parse")
+@Category("Text Tree")
+@Description("Parsing of a text tree with lines, nodes, infos and the time spent per phase")
+class ParseEvent extends jdk.jfr.Event {
+  @Label("Lines")
+  long lines;
+
+  @Label("Characters")
+  long characters;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  @Label("Nodes")
+  long nodes;
+
+  @Label("Synonyms")
+  long synonyms;
+
+  @Label("Nodes With Infos")
+  long infos;
+
+  @Label("Unparsable Names")
+  long unparsable;
+
+  @Label("Read Time")
+  @Timespan
+  long readTime;
+
+  @Label("Lex Time")
+  @Timespan
+  long lexTime;
+
+  @Label("Name Parsing Time")
+  @Timespan
+  long namesTime;
+
+  @Label("Infos Parsing Time")
+  @Timespan
+  long infosTime;
+
+  @Label("Assembly Time")
+  @Timespan
+  long assemblyTime;
+}
@@ -0,0 +1,266 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.NameType;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects metrics while a tree is parsed, e.g. to find out where the time goes for large trees.
+ * Pass an instance to {@link ParseOptions#metrics(ParseMetrics)} and read it once parsing finished.
+ *
+ * Time is split into phases and measured per line, which adds a small overhead.
+ * When parsing in parallel the phase times are summed over all threads.
+ * Each parse also emits a {@code org.gbif.txtree.Parse} JFR event if the event is enabled in a recording.
+ * The event has the same counts and phase times, but only the total of unparsable names and no counts per rank or name type.
+ *
+ * Metrics accumulate if an instance is reused for several parses.
+ */
+public class ParseMetrics {
+  public enum Phase {
+    /**
+     * Reading and decoding lines.
+     */
+    READ,
+    /**
+     * Lexing lines and creating nodes, without names and infos.
+     */
+    LEX,
+    /**
+     * Parsing names with the GBIF name parser.
+     */
+    NAMES,
+    /**
+     * Parsing the infos in curly brackets.
+     */
+    INFOS,
+    /**
+     * Attaching nodes to the tree.
+     */
+    ASSEMBLY
+  }
+
+  private final long[] nanos = new long[Phase.values().length];
+  private final Map<String, Long> ranks = new HashMap<>();
+  private final Map<NameType, Long> unparsable = new EnumMap<>(NameType.class);
+  private long lines;
+  private long characters;
+  private long bytes;
+  private long nodes;
+  private long synonyms;
+  private long infos;
+  private long elapsed;
+  private long started;
+  private ParseEvent event;
+
+  // the recording methods below are only called by the parsing thread owning the instance,
+  // other threads collect their own metrics which are merged at the end
+  synchronized void start() {
+    started = System.nanoTime();
+    event = new ParseEvent();
+    event.begin();
+  }
+
+  synchronized void end() {
+    elapsed += System.nanoTime() - started;
+    event.end();
+    if (event.shouldCommit()) {
+      event.lines = lines;
+      event.characters = characters;
+      event.bytes = bytes;
+      event.nodes = nodes;
+      event.synonyms = synonyms;
+      event.infos = infos;
+      event.unparsable = getUnparsableCount();
+      event.readTime = nanos[Phase.READ.ordinal()];
+      event.lexTime = nanos[Phase.LEX.ordinal()];
+      event.namesTime = nanos[Phase.NAMES.ordinal()];
+      event.infosTime = nanos[Phase.INFOS.ordinal()];
+      event.assemblyTime = nanos[Phase.ASSEMBLY.ordinal()];
+      event.commit();
+    }
+    event = null;
+  }
+
+  /**
+   * Records a line that was read.
+   */
+  void line(CharSequence line, long readNanos) {
+    lines++;
+    // including the line terminator
+    characters += line.length() + 1;
+    nanos[Phase.READ.ordinal()] += readNanos;
+  }
+
+  void time(Phase phase, long nanos) {
+    this.nanos[phase.ordinal()] += nanos;
+  }
+
+  /**
+   * @return the time spent on names and infos so far, which is nested in the time to build a node
+   */
+  long nestedNanos() {
+    return nanos[Phase.NAMES.ordinal()] + nanos[Phase.INFOS.ordinal()];
+  }
+
+  /**
+   * Records a node added to the tree.
+   */
+  void node(TreeNode<?> n, boolean synonym) {
+    nodes++;
+    if (synonym) {
+      synonyms++;
+    }
+    if (n.rank != null) {
+      ranks.merge(n.rank, 1L, Long::sum);
+    }
+    // lazy infos must not be decoded just to be counted
+    if (n.infos instanceof LazyInfos ? !((LazyInfos) n.infos).isKnownEmpty() : n.infos != null && !n.infos.isEmpty()) {
+      infos++;
+    }
+  }
+
+  void unparsable(NameType type) {
+    unparsable.merge(type, 1L, Long::sum);
+  }
+
+  /**
+   * Adds all counts and times of metrics collected by another thread.
+   */
+  synchronized void merge(ParseMetrics other) {
+    for (int i = 0; i < nanos.length; i++) {
+      nanos[i] += other.nanos[i];
+    }
+    other.ranks.forEach((k, v) -> ranks.merge(k, v, Long::sum));
+    other.unparsable.forEach((k, v) -> unparsable.merge(k, v, Long::sum));
+    lines += other.lines;
+    characters += other.characters;
+    bytes += other.bytes;
+    nodes += other.nodes;
+    synonyms += other.synonyms;
+    infos += other.infos;
+  }
+
+  /**
+   * Wraps a stream to count the bytes read from it.
+   */
+  InputStream count(InputStream stream) {
+    return new FilterInputStream(stream) {
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+          bytes++;
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+          bytes += n;
+        }
+        return n;
+      }
+    };
+  }
+
+  /**
+   * @return number of lines read, including blank lines
+   */
+  public synchronized long getLines() {
+    return lines;
+  }
+
+  /**
+   * @return number of characters read including line terminators, counting 1 per line
+   */
+  public synchronized long getCharacters() {
+    return characters;
+  }
+
+  /**
+   * @return number of bytes read when parsing an input stream, zero for readers
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return number of nodes added to the tree, including synonyms
+   */
+  public synchronized long getNodes() {
+    return nodes;
+  }
+
+  public synchronized long getSynonyms() {
+    return synonyms;
+  }
+
+  /**
+   * @return number of nodes having infos
+   */
+  public synchronized long getInfos() {
+    return infos;
+  }
+
+  /**
+   * @return number of nodes per verbatim rank
+   */
+  public synchronized Map<String, Long> getRanks() {
+    return Collections.unmodifiableMap(new HashMap<>(ranks));
+  }
+
+  /**
+   * @return number of names the name parser failed to parse by their name type
+   */
+  public synchronized Map<NameType, Long> getUnparsable() {
+    return Collections.unmodifiableMap(new EnumMap<>(unparsable));
+  }
+
+  public synchronized long getUnparsableCount() {
+    return unparsable.values().stream().mapToLong(Long::longValue).sum();
+  }
+
+  /**
+   * @return time spent in the given phase in nanoseconds
+   */
+  public synchronized long getNanos(Phase phase) {
+    return nanos[phase.ordinal()];
+  }
+
+  /**
+   * @return wall clock time of all finished parses in nanoseconds
+   */
+  public synchronized long getElapsedNanos() {
+    return elapsed;
+  }
+
+  public synchronized double getLinesPerSecond() {
+    return elapsed == 0 ? 0 : lines * 1e9 / elapsed;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(lines).append(" lines, ")
+      .append(nodes).append(" nodes, ")
+      .append(synonyms).append(" synonyms, ")
+      .append(infos).append(" with infos, ")
+      .append(getUnparsableCount()).append(" unparsable names in ")
+      .append(TimeUnit.NANOSECONDS.toMillis(elapsed)).append("ms (")
+      .append(Math.round(getLinesPerSecond())).append(" lines/s");
+    for (Phase p : Phase.values()) {
+      sb.append(", ").append(p.name().toLowerCase()).append('=')
+        .append(TimeUnit.NANOSECONDS.toMillis(nanos[p.ordinal()])).append("ms");
+    }
+    return sb.append(')').toString();
+  }
+}
@@ -0,0 +1,96 @@
+package org.gbif.txtree;
+
+/**
+ * Options to tune how a text tree is parsed.
+ * The defaults parse sequentially on the calling thread, just as {@link Tree#simple(java.io.InputStream)} does.
+ */
+public class ParseOptions {
+  private int parallelism = 1;
+  private int nameParserThreads = 1;
+  private int nameCacheSize = 0;
+  private ParseMetrics metrics;
+  private boolean lazyInfos;
+  int chunkLines = 10_000;
+
+  public ParseOptions() {
+  }
+
+  /**
+   * @return a new options instance with all defaults
+   */
+  public static ParseOptions defaults() {
+    return new ParseOptions();
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Sets the number of threads to parse the tree with.
+   * The input is split into chunks at root level lines and the chunks are parsed in parallel,
+   * so this only helps with trees having many root nodes, e.g. kingdoms or families.
+   * Values below 2 parse sequentially.
+   */
+  public ParseOptions parallelism(int threads) {
+    this.parallelism = Math.max(1, threads);
+    return this;
+  }
+
+  public int getNameParserThreads() {
+    return nameParserThreads;
+  }
+
+  /**
+   * Sets the number of worker threads used to parse names when building parsed trees.
+   * Names are sent to the workers in batches while the calling thread reads the tree.
+   * Values below 2 parse names on the calling thread.
+   * Only used for sequential parsing, with a parallelism above 1 names are parsed by the chunk threads.
+   */
+  public ParseOptions nameParserThreads(int threads) {
+    this.nameParserThreads = Math.max(1, threads);
+    return this;
+  }
+
+  public int getNameCacheSize() {
+    return nameCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of parsed names to cache by their name and rank when building parsed trees.
+   * Nodes with the same name and rank share the same parsed name instance.
+   * Zero disables the cache.
+   */
+  public ParseOptions nameCacheSize(int size) {
+    this.nameCacheSize = Math.max(0, size);
+    return this;
+  }
+
+  public boolean isLazyInfos() {
+    return lazyInfos;
+  }
+
+  /**
+   * Keeps the raw text of the infos in curly brackets and only decodes them when a node's infos are first accessed.
+   * This saves parsing time and memory for jobs that never read the infos.
+   * The decoded infos are the same as with eager parsing, but values are not shared between nodes.
+   * Comments are always kept as they need no decoding.
+   */
+  public ParseOptions lazyInfos(boolean lazy) {
+    this.lazyInfos = lazy;
+    return this;
+  }
+
+  public ParseMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets optional metrics to be filled while parsing, e.g. the time spent per phase and the number of unparsable names.
+   * Null disables metrics.
+   */
+  public ParseOptions metrics(ParseMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+}
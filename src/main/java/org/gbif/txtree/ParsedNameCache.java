@@ -0,0 +1,109 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.ParsedName;
+import org.gbif.nameparser.api.Rank;
+import org.gbif.nameparser.api.UnparsableNameException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread safe cache of name parser results keyed on name and rank.
+ * Unparsable names are cached too, so they are not parsed again.
+ * The cache is split into up to 16 segments that each evict their least recently used entries.
+ * Small caches use fewer segments, so every segment holds at least one name and the segment sizes add up to the maximum size.
+ *
+ * Cached parsed names are shared between all nodes with the same name and rank,
+ * so they should not be modified.
+ */
+class ParsedNameCache {
+  private static final int SEGMENTS = 16;
+  private final Segment[] segments;
+
+  private record Key(String name, Rank rank) {
+  }
+
+  private static class Segment {
+    // access ordered, so the first entry is the least recently used
+    private final Map<Key, Object> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxSize;
+
+    Segment(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    Object get(Key key) {
+      return map.get(key);
+    }
+
+    int size() {
+      return map.size();
+    }
+
+    void put(Key key, Object val) {
+      map.put(key, val);
+      if (map.size() > maxSize) {
+        Iterator<Key> iter = map.keySet().iterator();
+        iter.next();
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * @param maxSize the maximum number of names to keep
+   */
+  ParsedNameCache(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    }
+    // a power of two to select segments by masking the hash
+    int count = Math.min(SEGMENTS, Integer.highestOneBit(maxSize));
+    segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      // the remainder is spread over the first segments
+      segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * @return the number of cached names
+   */
+  int size() {
+    int size = 0;
+    for (Segment seg : segments) {
+      synchronized (seg) {
+        size += seg.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the cached parsed name or parses and caches a new one.
+   * @throws UnparsableNameException if the name could not be parsed now or before
+   */
+  ParsedName parse(String name, Rank rank) throws UnparsableNameException {
+    Key key = new Key(name, rank);
+    Segment seg = segments[(key.hashCode() ^ (key.hashCode() >>> 16)) & (segments.length - 1)];
+    Object val;
+    synchronized (seg) {
+      val = seg.get(key);
+    }
+    if (val == null) {
+      try {
+        val = Tree.parseName(name, rank);
+      } catch (UnparsableNameException e) {
+        val = e;
+      }
+      synchronized (seg) {
+        seg.put(key, val);
+      }
+    }
+    if (val instanceof UnparsableNameException) {
+      throw (UnparsableNameException) val;
+    }
+    return (ParsedName) val;
+  }
+}
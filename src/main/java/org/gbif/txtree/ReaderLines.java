@@ -0,0 +1,56 @@
+package org.gbif.txtree;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the lines of a reader into a single reusable line buffer instead of a new string per line.
+ * Lines are split at \n, \r or \r\n just as {@link java.io.BufferedReader#readLine()} does.
+ */
+final class ReaderLines implements LineSource {
+  private final Reader reader;
+  private final char[] buf = new char[8192];
+  private final LineBuffer line = new LineBuffer();
+  private int pos;
+  private int limit;
+  private boolean skipNewline;
+
+  ReaderLines(Reader reader) {
+    this.reader = reader;
+  }
+
+  @Override
+  public CharSequence next() throws IOException {
+    line.clear();
+    boolean started = false;
+    while (true) {
+      if (pos >= limit) {
+        limit = Math.max(0, reader.read(buf, 0, buf.length));
+        pos = 0;
+        if (limit == 0) {
+          return started ? line : null;
+        }
+      }
+      if (skipNewline) {
+        skipNewline = false;
+        if (buf[pos] == '\n') {
+          pos++;
+          continue;
+        }
+      }
+      int start = pos;
+      while (pos < limit) {
+        char c = buf[pos];
+        if (c == '\n' || c == '\r') {
+          line.append(buf, start, pos - start);
+          pos++;
+          skipNewline = c == '\r';
+          return line;
+        }
+        pos++;
+      }
+      line.append(buf, start, pos - start);
+      started = true;
+    }
+  }
+}
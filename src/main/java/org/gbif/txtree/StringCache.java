@@ -0,0 +1,69 @@
+package org.gbif.txtree;
+
+/**
+ * Small direct mapped cache to share equal strings, e.g. ranks or info keys and values, while parsing a tree.
+ * Each slot keeps the last string with that hash, so frequent strings stay cached while unique ones,
+ * like identifiers, just replace each other without growing the cache.
+ *
+ * Caches are not thread safe and are used by a single parser only.
+ */
+final class StringCache {
+  private final String[] table;
+  private final int mask;
+
+  /**
+   * @param size number of slots, rounded up to a power of 2
+   */
+  StringCache(int size) {
+    int cap = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+    table = new String[cap];
+    mask = cap - 1;
+  }
+
+  /**
+   * @return a cached string with the same characters as the given subsequence, creating a new string only if needed
+   */
+  String get(CharSequence s, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    int slot = (h ^ (h >>> 16)) & mask;
+    String x = table[slot];
+    if (x != null && x.hashCode() == h && equals(x, s, start, end)) {
+      return x;
+    }
+    x = s.subSequence(start, end).toString();
+    table[slot] = x;
+    return x;
+  }
+
+  /**
+   * @return a cached string equal to the given one, caching it if it is new
+   */
+  String get(String s) {
+    if (s == null) {
+      return null;
+    }
+    int h = s.hashCode();
+    int slot = (h ^ (h >>> 16)) & mask;
+    String x = table[slot];
+    if (s.equals(x)) {
+      return x;
+    }
+    table[slot] = s;
+    return s;
+  }
+
+  private static boolean equals(String x, CharSequence s, int start, int end) {
+    if (x.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < x.length(); i++) {
+      if (x.charAt(i) != s.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -1,6 +1,5 @@
 package org.gbif.txtree;
 
-import org.apache.commons.lang3.StringUtils;
 import org.gbif.nameparser.NameParserImpl;
 import org.gbif.nameparser.api.NameParser;
 import org.gbif.nameparser.api.ParsedName;
@@ -10,12 +9,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -34,20 +34,21 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
   public static final String PROVISIONAL_SYMBOL = "?";
 
   private static final Logger LOG = LoggerFactory.getLogger(Tree.class);
-  private static final String ANY_CHAR = "[^\t\n\r]";
-  private static final Pattern LINE_PARSER = Pattern.compile("^" +
-      "((?:  )*)" + // indent #1
-      "([=≡$†?*]+ *)?" + // name prefix symbols #2
-      "([^\t\n\r\\s]"+ANY_CHAR+"+?)" +   // name & author #3
-      "(?: \\[([a-z _-]+)])?" +  // rank #4
-      "(?: +\\{("+ANY_CHAR+"*)})?" +  // infos #5
-      "(?:\\s+#\\s*(.*))?" +  // comments #6
-      "\\s*$");
-  private static final Pattern INFO_PARSER = Pattern.compile("([A-Z]+)=([^=]+)(?: |$)");
-  private static final Pattern COMMA_SPLITTER = Pattern.compile("\\s*(?<!,),(?!,)\\s*");
   private static final NameParser NAME_PARSER = new NameParserImpl();
   private long count;
   private final List<T> root = new ArrayList<>();
+  private volatile TreeIndex<T> index;
+  // creates new nodes for incremental updates, null if unsupported
+  BiFunction<Long, LineLexer, T> builder;
+  // the latest line shift of incremental updates, all attached nodes are valid up to it or an earlier shift
+  LineShift shifts = new LineShift();
+
+  public Tree() {
+  }
+
+  Tree(BiFunction<Long, LineLexer, T> builder) {
+    this.builder = builder;
+  }
 
 
 
@@ -59,7 +60,7 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
   }
 
   // to avoid dependency on apache or guava
-  static boolean isBlank(String x) {
+  static boolean isBlank(CharSequence x) {
     int strLen;
     if (x == null || (strLen = x.length()) == 0) return true;
     for (int i = 0; i < strLen; i++) {
@@ -72,6 +73,8 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
 
   /**
    * Builds a new simple tree instance by parsing the given UTF8 input stream.
+   * Gzip compressed streams are detected by their magic bytes and decompressed on background threads,
+   * overlapping decompression, line splitting and building the tree. This applies to all methods taking a stream or path.
    *
    * @param stream the input stream to parse
    * @return the new tree instance
@@ -79,7 +82,7 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * @throws IllegalArgumentException if the input contained was badly formatted
    */
   public static Tree<SimpleTreeNode> simple(InputStream stream) throws IOException {
-    return simple(stream, null);
+    return simple(stream, ParseOptions.defaults());
   }
 
   /**
@@ -88,11 +91,41 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * that is passed the verbatim tree line instance for each processed row.
    */
   public static Tree<SimpleTreeNode> simple(InputStream stream, Consumer<TreeLine> listener) throws IOException {
-    return parse(new InputStreamReader(stream, StandardCharsets.UTF_8), listener, Tree::simpleNode);
+    try (LineInput lines = LineInput.open(stream)) {
+      return parse(lines, listener, Tree::simpleNode);
+    }
   }
 
   public static Tree<SimpleTreeNode> simple(Reader reader) throws IOException {
-    return parse(reader, null, Tree::simpleNode);
+    return parse(lines(reader), ParseOptions.defaults(), Tree::simpleNode);
+  }
+
+  /**
+   * Builds a new simple tree instance by memory mapping the given UTF8 file.
+   * Lines are decoded straight from the mapped bytes into a reused buffer,
+   * so only the strings kept on the nodes are allocated.
+   *
+   * @param path the file to parse
+   * @return the new tree instance
+   * @throws IOException if the file could not be read
+   * @throws IllegalArgumentException if the input contained was badly formatted
+   */
+  public static Tree<SimpleTreeNode> simple(Path path) throws IOException {
+    return parse(path, Tree::simpleNode);
+  }
+
+  /**
+   * Builds a new simple tree instance by parsing the given UTF8 input stream
+   * using the given options, e.g. to parse in parallel.
+   */
+  public static Tree<SimpleTreeNode> simple(InputStream stream, ParseOptions options) throws IOException {
+    try (LineInput lines = LineInput.open(count(stream, options))) {
+      return parse(lines, options, Tree::simpleNode);
+    }
+  }
+
+  public static Tree<SimpleTreeNode> simple(Reader reader, ParseOptions options) throws IOException {
+    return parse(lines(reader), options, Tree::simpleNode);
   }
 
   /**
@@ -105,11 +138,21 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * @throws IllegalArgumentException if the input contained was badly formatted
    */
   public static Tree<ParsedTreeNode> parsed(InputStream stream) throws IOException {
-    return parsed(stream, null);
+    return parsed(stream, ParseOptions.defaults());
   }
 
   public static Tree<ParsedTreeNode> parsed(Reader reader) throws IOException {
-    return parse(reader, null, Tree::parsedNode);
+    return parse(lines(reader), ParseOptions.defaults(), Tree::parsedNode);
+  }
+
+  /**
+   * Builds a new parsed tree instance by memory mapping the given UTF8 file
+   * and using the GBIF name parser to create parsed names.
+   *
+   * @see #simple(Path)
+   */
+  public static Tree<ParsedTreeNode> parsed(Path path) throws IOException {
+    return parse(path, Tree::parsedNode);
   }
 
   /**
@@ -120,91 +163,348 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * that is passed the verbatim tree line instance for each processed row.
    */
   public static Tree<ParsedTreeNode> parsed(InputStream stream, Consumer<TreeLine> listener) throws IOException {
-    return parse(new InputStreamReader(stream, StandardCharsets.UTF_8), listener, Tree::parsedNode);
+    try (LineInput lines = LineInput.open(stream)) {
+      return parse(lines, listener, Tree::parsedNode);
+    }
+  }
+
+  /**
+   * Builds a new parsed tree instance by parsing the given UTF8 input stream
+   * using the given options, e.g. to parse in parallel.
+   */
+  public static Tree<ParsedTreeNode> parsed(InputStream stream, ParseOptions options) throws IOException {
+    try (LineInput lines = LineInput.open(count(stream, options))) {
+      return parsed(lines, options);
+    }
+  }
+
+  public static Tree<ParsedTreeNode> parsed(Reader reader, ParseOptions options) throws IOException {
+    return parsed(lines(reader), options);
+  }
+
+  private static Tree<ParsedTreeNode> parsed(LineSource lines, ParseOptions options) throws IOException {
+    ParsedNameCache cache = options.getNameCacheSize() > 0 ? new ParsedNameCache(options.getNameCacheSize()) : null;
+    Tree<ParsedTreeNode> tree;
+    if (options.getParallelism() <= 1 && options.getNameParserThreads() > 1) {
+      tree = new NameParserPipeline(options, cache).parse(lines);
+    } else {
+      tree = parse(lines, options, (row, l) -> parsedNode(row, l, cache));
+    }
+    // do not keep the name cache alive for updates
+    tree.builder = Tree::parsedNode;
+    return tree;
+  }
+
+  /**
+   * Builds a new tree instance by parsing the given UTF8 input stream
+   * with nodes that only parse their name when it is first accessed.
+   * This makes loading large trees much faster if only some parsed names are needed.
+   *
+   * @param stream the input stream to parse
+   * @return the new tree instance
+   * @throws IOException if the input could not be read
+   * @throws IllegalArgumentException if the input contained was badly formatted
+   */
+  public static Tree<LazyParsedTreeNode> lazyParsed(InputStream stream) throws IOException {
+    try (LineInput lines = LineInput.open(stream)) {
+      return parse(lines, ParseOptions.defaults(), Tree::lazyParsedNode);
+    }
+  }
+
+  public static Tree<LazyParsedTreeNode> lazyParsed(Reader reader) throws IOException {
+    return parse(lines(reader), ParseOptions.defaults(), Tree::lazyParsedNode);
+  }
+
+  public static Tree<LazyParsedTreeNode> lazyParsed(Reader reader, ParseOptions options) throws IOException {
+    return parse(lines(reader), options, Tree::lazyParsedNode);
+  }
+
+  /**
+   * Builds a new compact tree by parsing the given UTF8 input stream.
+   * Compact trees keep all nodes in primitive arrays and need far less memory than simple trees.
+   *
+   * @see CompactTree
+   */
+  public static CompactTree compact(InputStream stream) throws IOException {
+    return CompactTree.parse(stream);
+  }
+
+  public static CompactTree compact(Reader reader) throws IOException {
+    return CompactTree.parse(reader);
+  }
+
+  public static CompactTree compact(Path path) throws IOException {
+    return CompactTree.parse(path);
+  }
+
+  /**
+   * Streams through the given UTF8 input stream without building a tree,
+   * passing simple nodes to the given handler.
+   * Memory is bounded by the depth of the tree, not its size.
+   *
+   * @throws IOException if the input could not be read
+   * @throws IllegalArgumentException if the input contained was badly formatted
+   */
+  public static void streamSimple(InputStream stream, TreeHandler<SimpleTreeNode> handler) throws IOException {
+    try (LineInput lines = LineInput.open(stream)) {
+      new TreeParser<>(Tree::simpleNode, handler, null).parse(lines);
+    }
+  }
+
+  /**
+   * Streams through the given reader without building a tree, passing simple nodes to the given handler.
+   */
+  public static void streamSimple(Reader reader, TreeHandler<SimpleTreeNode> handler) throws IOException {
+    new TreeParser<>(Tree::simpleNode, handler, null).parse(reader);
+  }
+
+  /**
+   * Streams through the given memory mapped UTF8 file without building a tree, passing simple nodes to the given handler.
+   */
+  public static void streamSimple(Path path, TreeHandler<SimpleTreeNode> handler) throws IOException {
+    try (LineInput lines = LineInput.open(path)) {
+      new TreeParser<>(Tree::simpleNode, handler, null).parse(lines);
+    }
+  }
+
+  /**
+   * Streams through the given UTF8 input stream without building a tree,
+   * passing nodes with parsed names to the given handler.
+   * Memory is bounded by the depth of the tree, not its size.
+   *
+   * @throws IOException if the input could not be read
+   * @throws IllegalArgumentException if the input contained was badly formatted
+   */
+  public static void streamParsed(InputStream stream, TreeHandler<ParsedTreeNode> handler) throws IOException {
+    try (LineInput lines = LineInput.open(stream)) {
+      new TreeParser<>(Tree::parsedNode, handler, null).parse(lines);
+    }
+  }
+
+  /**
+   * Streams through the given reader without building a tree, passing nodes with parsed names to the given handler.
+   */
+  public static void streamParsed(Reader reader, TreeHandler<ParsedTreeNode> handler) throws IOException {
+    new TreeParser<>(Tree::parsedNode, handler, null).parse(reader);
+  }
+
+  /**
+   * Streams through the given memory mapped UTF8 file without building a tree, passing nodes with parsed names to the given handler.
+   */
+  public static void streamParsed(Path path, TreeHandler<ParsedTreeNode> handler) throws IOException {
+    try (LineInput lines = LineInput.open(path)) {
+      new TreeParser<>(Tree::parsedNode, handler, null).parse(lines);
+    }
   }
 
-  private static <T extends TreeNode<T>> Tree<T> parse(Reader reader,
+  private static <T extends TreeNode<T>> Tree<T> parse(LineSource lines,
                                                        Consumer<TreeLine> listener,
-                                                       BiFunction<Long, Matcher, T> builder
+                                                       BiFunction<Long, LineLexer, T> builder
                                                        ) throws IOException {
-    Tree<T> tree = new Tree<>();
-    LinkedList<T> parents = new LinkedList<>();
-
-    BufferedReader br = new BufferedReader(reader);
-    long row = 1;
-    String line = br.readLine();
-    while (line != null) {
-      int level = 0;
-      if (!isBlank(line)) {
-        tree.count++;
-        Matcher m = LINE_PARSER.matcher(line);
-        if (m.find()) {
-          level = m.group(1).length();
-          if (level % 2 != 0) {
-            throw new IllegalArgumentException("Tree is not indented properly on line " + row + ". Use 2 spaces only: " + line);
-          }
-          level = level / 2;
-
-          T n = builder.apply(row, m);
-          if (level == 0) {
-            tree.getRoot().add(n);
-            parents.clear();
-            parents.add(n);
-
-          } else {
-            while (parents.size() > level) {
-              // remove latest parents until we are at the right level
-              parents.removeLast();
-            }
-            if (parents.size() < level) {
-              throw new IllegalArgumentException("Tree is not properly indented on line " + row + ". Use 2 spaces for children: " + line);
-            }
-            T p = parents.peekLast();
-            if (isSynonym(m.group(2))) {
-              p.synonyms.add(n);
-            } else {
-              p.children.add(n);
-            }
-            parents.add(n);
-          }
-
-          if (listener != null) {
-            TreeLine tl = new TreeLine(row, level, line.trim(), n.infos);
-            listener.accept(tl);
-          }
-        } else {
-          throw new IllegalArgumentException("Failed to parse Tree on line " + row + ": " + line);
-        }
+    Tree<T> tree = new Tree<>(builder);
+    new TreeParser<>(builder, tree.assembler(), listener).parse(lines);
+    return tree;
+  }
+
+  private static <T extends TreeNode<T>> Tree<T> parse(Path path, BiFunction<Long, LineLexer, T> builder) throws IOException {
+    Tree<T> tree = new Tree<>(builder);
+    try (LineInput lines = LineInput.open(path)) {
+      new TreeParser<>(builder, tree.assembler(), null).parse(lines);
+    }
+    return tree;
+  }
+
+  private static <T extends TreeNode<T>> Tree<T> parse(LineSource lines,
+                                                       ParseOptions options,
+                                                       BiFunction<Long, LineLexer, T> builder
+                                                       ) throws IOException {
+    if (options.getParallelism() > 1) {
+      return new ChunkedParser<>(builder, options).parse(lines);
+    }
+    Tree<T> tree = new Tree<>(builder);
+    TreeParser<T> parser = new TreeParser<>(builder, tree.assembler(), null);
+    parser.lazyInfos(options.isLazyInfos());
+    ParseMetrics metrics = options.getMetrics();
+    if (metrics != null) {
+      metrics.start();
+      parser.metrics(metrics);
+    }
+    try {
+      parser.parse(lines);
+    } finally {
+      if (metrics != null) {
+        metrics.end();
       }
-      line = br.readLine();
-      row++;
     }
     return tree;
   }
 
-  private static boolean isSynonym(String flags) {
-    return flags != null && (
-           flags.contains(SYNONYM_SYMBOL) ||
-           flags.contains(SYNONYM_OLD_SYMBOL) ||
-           flags.contains(HOMOTYPIC_SYMBOL)
-    );
+  private static LineSource lines(Reader reader) {
+    return new BufferedReader(reader)::readLine;
+  }
+
+  private static InputStream count(InputStream stream, ParseOptions options) {
+    return options.getMetrics() == null ? stream : options.getMetrics().count(stream);
+  }
+
+  /**
+   * @return a new handler that attaches all nodes to this tree
+   */
+  TreeHandler<T> assembler() {
+    return new Assembler();
+  }
+
+  /**
+   * Appends all root nodes of another tree to this one.
+   */
+  void append(Tree<T> other) {
+    root.addAll(other.root);
+    count += other.count;
+    index = null;
+  }
+
+  /**
+   * Appends a line shift of an incremental update, moving all following nodes lazily.
+   */
+  void shift(LineShift shift) {
+    shifts.next = shift;
+    shifts = shift;
+  }
+
+  /**
+   * Adjusts the size after an incremental update.
+   */
+  void updated(long sizeDelta) {
+    count += sizeDelta;
+    index = null;
+  }
+
+  /**
+   * Updates the tree after a single edit of its text, see {@link #update(List, List)}.
+   */
+  public void update(List<? extends CharSequence> lines, TreeEdit edit) {
+    update(lines, Collections.singletonList(edit));
+  }
+
+  /**
+   * Updates a parsed tree after its text was edited by re-parsing only the subtrees affected by the edits.
+   * Nodes following an edit are kept, but their ids are shifted if lines were added or removed.
+   * Ids are shifted lazily when they are next read by {@link TreeNode#getId()},
+   * so the update only depends on the size of the edits and their enclosing subtrees instead of the size of the entire tree.
+   * The public {@link TreeNode#id} field keeps the line a node was parsed from.
+   * Nodes added to the tree by hand are not shifted.
+   *
+   * @param lines all lines of the edited text without line terminators
+   * @param edits the changed line ranges with line numbers referring to the text before the edits
+   * @throws IllegalArgumentException if the edits overlap or an edited part is badly formatted.
+   *                                  Edits before the bad one have been applied in that case.
+   * @throws IllegalStateException if the tree was not parsed from text or a snapshot
+   */
+  public synchronized void update(List<? extends CharSequence> lines, List<TreeEdit> edits) {
+    if (builder == null) {
+      throw new IllegalStateException("Tree was not parsed and cannot be updated");
+    }
+    new TreeUpdater<>(this, lines, builder).apply(edits);
+  }
+
+  /**
+   * Returns an index to look up nodes by their name, canonical name or id.
+   * The index is built on first use and then cached,
+   * call {@link #reindex()} after modifying the tree.
+   */
+  public TreeIndex<T> index() {
+    TreeIndex<T> idx = index;
+    if (idx == null) {
+      synchronized (this) {
+        idx = index;
+        if (idx == null) {
+          idx = new TreeIndex<>(this);
+          index = idx;
+        }
+      }
+    }
+    return idx;
+  }
+
+  /**
+   * Creates an immutable copy of the tree structure that can be shared between threads without synchronization,
+   * e.g. to serve lookups on a large reference tree.
+   * The nodes themselves are shared and not copied, see {@link FrozenTree}:
+   * their child and synonym lists, ids, infos and parsed names are still mutable
+   * and should only be read through the frozen tree, e.g. {@link FrozenTree#infos(int)}.
+   */
+  public synchronized FrozenTree<T> freeze() {
+    return new FrozenTree<>(this);
+  }
+
+  /**
+   * Rebuilds the index after the tree was modified.
+   */
+  public synchronized TreeIndex<T> reindex() {
+    index = new TreeIndex<>(this);
+    return index;
+  }
+
+  /**
+   * Handler attaching all nodes to this tree.
+   */
+  private class Assembler implements TreeHandler<T> {
+    @Override
+    public void startNode(T node, List<T> parents) {
+      count++;
+      node.attach(shifts);
+      if (parents.isEmpty()) {
+        root.add(node);
+      } else {
+        T p = parents.get(parents.size() - 1);
+        p.children.add(node);
+        node.parent = p;
+      }
+    }
+
+    @Override
+    public void synonym(T synonym, List<T> parents) {
+      count++;
+      synonym.attach(shifts);
+      T p = parents.get(parents.size() - 1);
+      p.synonyms.add(synonym);
+      synonym.parent = p;
+    }
   }
 
   public static class VerificationResult {
     public final boolean valid;
     public final int lines;
     public final String message;
+    /**
+     * All errors found, at most as many as requested. The first one is also given as the message.
+     */
+    public final List<VerificationError> errors;
 
     public VerificationResult(boolean valid, int lines, String message) {
+      this(valid, lines, message, valid ? List.of() : List.of(new VerificationError(lines, message)));
+    }
+
+    public VerificationResult(boolean valid, int lines, String message, List<VerificationError> errors) {
         this.valid = valid;
         this.lines = lines;
         this.message = message;
+        this.errors = Collections.unmodifiableList(errors);
     }
-    private static VerificationResult failed(String message, int lines) {
-      return new VerificationResult(false, lines, message);
+  }
+
+  public static class VerificationError {
+    public final int line;
+    public final String message;
+
+    public VerificationError(int line, String message) {
+      this.line = line;
+      this.message = message;
     }
-    private static VerificationResult valid(int lines) {
-      return new VerificationResult(true, lines, "The tree is valid");
+
+    @Override
+    public String toString() {
+      return message;
     }
   }
 
@@ -215,7 +515,19 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * @return error message or NULL if the input stream contains a valid text tree
    */
   public static VerificationResult verify(InputStream stream) throws IOException {
-    return verify(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    return verify(stream, 1);
+  }
+
+  /**
+   * Verifies that the given input stream contains a valid text tree,
+   * collecting errors until the given maximum number of errors is reached.
+   * @param stream tree input
+   * @param maxErrors the number of errors after which verification stops
+   */
+  public static VerificationResult verify(InputStream stream, int maxErrors) throws IOException {
+    try (LineInput lines = LineInput.open(stream)) {
+      return new TreeVerifier(maxErrors).verify(lines);
+    }
   }
 
   /**
@@ -225,91 +537,250 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * @return error message or NULL if the input stream contains a valid text tree
    */
   public static VerificationResult verify(Reader reader) throws IOException {
-    var br = new BufferedReader(reader);
-    String line = br.readLine();
-    int lineNumber = 1;
+    return verify(reader, 1);
+  }
+
+  public static VerificationResult verify(Reader reader, int maxErrors) throws IOException {
+    return new TreeVerifier(maxErrors).verify(new ReaderLines(reader));
+  }
+
+  /**
+   * Verifies that the given UTF8 file contains a valid text tree by memory mapping it.
+   * @param path tree file
+   */
+  public static VerificationResult verify(Path path) throws IOException {
+    return verify(path, 1);
+  }
+
+  public static VerificationResult verify(Path path, int maxErrors) throws IOException {
+    try (LineInput lines = LineInput.open(path)) {
+      return new TreeVerifier(maxErrors).verify(lines);
+    }
+  }
+
+  static SimpleTreeNode simpleNode(long row, LineLexer l) {
+    boolean homotypic = l.flag(HOMOTYPIC_SYMBOL);
+    boolean basionym = l.flag(BASIONYM_SYMBOL);
+    boolean extinct = l.flag(EXTINCT_SYMBOL);
+    boolean provisional = l.flag(PROVISIONAL_SYMBOL);
+    String name = l.name();
+    String rank = l.rank();
+    return new SimpleTreeNode(row, name, rank, extinct, basionym, homotypic, provisional, parseInfos(l), l.comment());
+  }
+
+  static ParsedTreeNode parsedNode(long row, LineLexer l) {
+    return parsedNode(row, l, null);
+  }
+
+  private static ParsedTreeNode parsedNode(long row, LineLexer l, ParsedNameCache cache) {
+    boolean homotypic = l.flag(HOMOTYPIC_SYMBOL);
+    boolean basionym = l.flag(BASIONYM_SYMBOL);
+    boolean extinct = l.flag(EXTINCT_SYMBOL);
+    boolean provisional = l.flag(PROVISIONAL_SYMBOL);
+    String name = l.name();
+    Rank rank = l.parsedRank();
+    ParsedName pn = parseNameOrNull(name, rank, cache, l.metrics);
+    return new ParsedTreeNode(row, name, pn, extinct, basionym, homotypic, provisional, parseInfos(l), l.comment());
+  }
+
+  private static LazyParsedTreeNode lazyParsedNode(long row, LineLexer l) {
+    boolean homotypic = l.flag(HOMOTYPIC_SYMBOL);
+    boolean basionym = l.flag(BASIONYM_SYMBOL);
+    boolean extinct = l.flag(EXTINCT_SYMBOL);
+    boolean provisional = l.flag(PROVISIONAL_SYMBOL);
+    return new LazyParsedTreeNode(row, l.name(), l.parsedRank(), extinct, basionym, homotypic, provisional, parseInfos(l), l.comment());
+  }
+
+  static Rank parseRank(String vrank) {
+    return vrank == null ? null : Rank.valueOf(vrank.toUpperCase().replace(' ', '_'));
+  }
+
+  /**
+   * Parses a name with the GBIF name parser keeping the original rank.
+   */
+  static ParsedName parseName(String name, Rank rank) throws UnparsableNameException {
+    ParsedName pn = NAME_PARSER.parse(name, null, rank, null);
+    pn.setRank(rank); // make sure to keep the original rank
+    return pn;
+  }
+
+  /**
+   * Parses a name, optionally using a cache, and logs unparsable names.
+   * @return the parsed name or null if it could not be parsed
+   */
+  static ParsedName parseNameOrNull(String name, Rank rank, ParsedNameCache cache) {
+    return parseNameOrNull(name, rank, cache, null);
+  }
+
+  /**
+   * Parses a name like {@link #parseNameOrNull(String, Rank, ParsedNameCache)} and records the time and failures in optional metrics.
+   */
+  static ParsedName parseNameOrNull(String name, Rank rank, ParsedNameCache cache, ParseMetrics metrics) {
+    long start = metrics == null ? 0 : System.nanoTime();
     try {
-      int max = 0;
-      int last = 0;
-      while (line != null) {
-        if (!StringUtils.isBlank(line)) {
-          Matcher m = LINE_PARSER.matcher(line);
-          if (m.find()) {
-            int level = m.group(1).length();
-            max = Math.max(max, level);
-            if (level % 2 != 0) {
-              return VerificationResult.failed(String.format("Tree is not indented properly on line %s. Use 2 spaces only: %s", lineNumber, line), lineNumber);
-            }
-            if (level-last>2) {
-              return VerificationResult.failed(String.format("Tree is indented too much on line %s. Use 2 spaces only: %s", lineNumber, line), lineNumber);
-            }
-            last = level;
-          } else {
-            return VerificationResult.failed(String.format("Failed to parse Tree on line %s: %s", lineNumber, line), lineNumber);
-          }
-        }
-        line = br.readLine();
-        lineNumber++;
+      return cache == null ? parseName(name, rank) : cache.parse(name, rank);
+    } catch (UnparsableNameException e) {
+      LOG.warn("Failed to parse {} {}", e.getType(), e.getName());
+      if (metrics != null) {
+        metrics.unparsable(e.getType());
       }
-      if (max==0 && lineNumber > 8) {
-        return VerificationResult.failed("Tree is not indented at all", lineNumber);
+    } finally {
+      if (metrics != null) {
+        metrics.time(ParseMetrics.Phase.NAMES, System.nanoTime() - start);
       }
+    }
+    return null;
+  }
 
-    } catch (IllegalArgumentException e) {
-      return VerificationResult.failed(String.format("Failed to parse Tree on line %s: %s", lineNumber, line), lineNumber);
+  /**
+   * Parses the infos of the current line, sharing keys and repeated values with previous lines of the same tree.
+   */
+  static Map<String, String[]> parseInfos(LineLexer l) {
+    if (l.lazyInfos) {
+      String raw = l.infos();
+      // infos which would decode to nothing are skipped right away
+      return raw == null || !hasInfos(raw) ? Collections.emptyMap() : new LazyInfos(raw);
+    }
+    if (l.metrics == null) {
+      return parseInfos(l.infos(), l.strings());
     }
-    // should we require some other level than just 0???
-    return VerificationResult.valid(lineNumber-1);
+    long start = System.nanoTime();
+    Map<String, String[]> infos = parseInfos(l.infos(), l.strings());
+    l.metrics.time(ParseMetrics.Phase.INFOS, System.nanoTime() - start);
+    return infos;
   }
 
-  private static SimpleTreeNode simpleNode(long row, Matcher m) {
-    String flags = m.group(2) == null ? "" : m.group(2);
-    boolean homotypic = flags.contains(HOMOTYPIC_SYMBOL);
-    boolean basionym = flags.contains(BASIONYM_SYMBOL);
-    boolean extinct = flags.contains(EXTINCT_SYMBOL);
-    boolean provisional = flags.contains(PROVISIONAL_SYMBOL);
-    String name = m.group(3).trim();
-    String rank = StringUtils.trimToNull(m.group(4));
-    return new SimpleTreeNode(row, name, rank, extinct, basionym, homotypic, provisional, parseInfos(m.group(5)), m.group(6));
+  static Map<String, String[]> parseInfos(String infoString) throws IllegalArgumentException {
+    return parseInfos(infoString, null);
   }
 
-  private static ParsedTreeNode parsedNode(long row, Matcher m) {
-    String flags = m.group(2) == null ? "" : m.group(2);
-    boolean homotypic = flags.contains(HOMOTYPIC_SYMBOL);
-    boolean basionym = flags.contains(BASIONYM_SYMBOL);
-    boolean extinct = flags.contains(EXTINCT_SYMBOL);
-    boolean provisional = flags.contains(PROVISIONAL_SYMBOL);
-    String name = m.group(3).trim();
-    Rank rank = null;
-    String vrank = StringUtils.trimToNull(m.group(4));
-    if (vrank != null) {
-      rank = Rank.valueOf(vrank.toUpperCase().replace(' ', '_'));
+  /**
+   * Parses infos of the form KEY=value1,value2 separated by spaces.
+   * Keys are capital letters, values are split at single commas and double commas are unescaped.
+   * The string is scanned directly without regular expressions.
+   *
+   * @param strings optional cache to share equal keys and values
+   * @return the parsed infos, an immutable shared empty map if there are none
+   */
+  static Map<String, String[]> parseInfos(String infoString, StringCache strings) throws IllegalArgumentException {
+    Map<String, String[]> infos = null;
+    int len = infoString == null ? 0 : infoString.length();
+    int i = 0;
+    while (i < len) {
+      int k = keyEnd(infoString, i);
+      int end = valueEnd(infoString, i, k);
+      if (end < 0) {
+        // no match can start within the key either
+        i = Math.max(i + 1, k);
+        continue;
+      }
+      if (infos == null) {
+        infos = new LinkedHashMap<>(4);
+      }
+      String key = strings == null ? infoString.substring(i, k) : strings.get(infoString, i, k);
+      String[] vals = splitValues(infoString.substring(k + 1, end).trim());
+      for (int j = 0; j < vals.length; j++) {
+        vals[j] = strings == null ? vals[j] : strings.get(vals[j]);
+      }
+      infos.put(key, vals);
+      i = end < len ? end + 1 : end;
     }
+    return infos == null ? Collections.emptyMap() : infos;
+  }
 
-    ParsedName pn = null;
-    try {
-      pn = NAME_PARSER.parse(name, null, rank, null);
-      pn.setRank(rank); // make sure to keep the original rank
-    } catch (UnparsableNameException e) {
-      LOG.warn("Failed to parse {} {}", e.getType(), e.getName());
+  /**
+   * @return true if {@link #parseInfos(String)} finds at least one info in the given string
+   */
+  static boolean hasInfos(String infoString) {
+    int len = infoString.length();
+    int i = 0;
+    while (i < len) {
+      int k = keyEnd(infoString, i);
+      if (valueEnd(infoString, i, k) >= 0) {
+        return true;
+      }
+      i = Math.max(i + 1, k);
     }
-    return new ParsedTreeNode(row, name, pn, extinct, basionym, homotypic, provisional, parseInfos(m.group(5)), m.group(6));
+    return false;
   }
 
-  private static Map<String, String[]> parseInfos(String infoString) throws IllegalArgumentException {
-    if (infoString != null) {
-      Matcher im = INFO_PARSER.matcher(infoString);
-      Map<String, String[]> infos = new LinkedHashMap<>();
-      while (im.find()) {
-        var vals = COMMA_SPLITTER.split(im.group(2).trim());
-        infos.put(im.group(1), Arrays.stream(vals)
-                .map(x->x.replaceAll(",,", ","))
-                .toArray(String[]::new)
-        );
+  /**
+   * @return the end of the run of capital letters starting at the given index
+   */
+  private static int keyEnd(String infoString, int start) {
+    int k = start;
+    while (k < infoString.length() && infoString.charAt(k) >= 'A' && infoString.charAt(k) <= 'Z') {
+      k++;
+    }
+    return k;
+  }
+
+  /**
+   * @return the end of the value of the key between start and keyEnd or -1 if there is no info starting at start
+   */
+  private static int valueEnd(String infoString, int start, int keyEnd) {
+    int len = infoString.length();
+    // the key is a run of capital letters followed by =
+    if (keyEnd == start || keyEnd == len || infoString.charAt(keyEnd) != '=') {
+      return -1;
+    }
+    // the value is the longest run without = that is followed by a space or the end
+    int v = keyEnd + 1;
+    int e = v;
+    while (e < len && infoString.charAt(e) != '=') {
+      e++;
+    }
+    if (e == len && e > v) {
+      return e;
+    }
+    for (int p = e - 1; p > v; p--) {
+      if (infoString.charAt(p) == ' ') {
+        return p;
       }
-      return infos;
     }
-    return Collections.EMPTY_MAP;
+    return -1;
+  }
+
+  /**
+   * Splits values at single commas, trimming whitespace around them, and unescapes double commas.
+   * Trailing empty values are dropped.
+   */
+  private static String[] splitValues(String value) {
+    if (value.indexOf(',') < 0) {
+      return new String[]{value};
+    }
+    int len = value.length();
+    List<String> vals = new ArrayList<>();
+    int start = 0;
+    for (int p = value.indexOf(','); p >= 0; p = value.indexOf(',', p + 1)) {
+      // commas next to another comma are escaped
+      if ((p > 0 && value.charAt(p - 1) == ',') || (p + 1 < len && value.charAt(p + 1) == ',')) {
+        continue;
+      }
+      int end = p;
+      while (end > start && isSpace(value.charAt(end - 1))) {
+        end--;
+      }
+      vals.add(unescape(value.substring(start, end)));
+      start = p + 1;
+      while (start < len && isSpace(value.charAt(start))) {
+        start++;
+      }
+    }
+    vals.add(unescape(value.substring(start)));
+    int size = vals.size();
+    while (size > 0 && vals.get(size - 1).isEmpty()) {
+      size--;
+    }
+    return vals.subList(0, size).toArray(new String[0]);
+  }
+
+  private static String unescape(String value) {
+    return value.contains(",,") ? value.replace(",,", ",") : value;
+  }
+
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
   }
 
   public List<T> getRoot() {
@@ -317,7 +788,8 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
   }
 
   /**
-   * Prints the entire tree to a given output
+   * Prints the entire tree to a given output.
+   * Nodes are visited iteratively, so trees of any depth can be printed.
    */
   public void print(Appendable out) throws IOException {
     for (T n : root) {
@@ -330,32 +802,140 @@ public class Tree<T extends TreeNode<T>> implements Iterable<T> {
    * The stream remains open and must be closed by the caller.
    */
   public void print(OutputStream out) throws IOException {
-    Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
-    print(w);
+    TreeWriter w = new TreeWriter(out);
+    w.write(this);
     w.flush();
   }
 
+  /**
+   * Prints the tree into a given output stream using UTF8, optionally compressing it with gzip.
+   * Compressed trees can be read again by all parse methods taking a stream or path.
+   * The stream remains open and must be closed by the caller.
+   */
+  public void print(OutputStream out, boolean gzip) throws IOException {
+    if (gzip) {
+      // closing the gzip stream releases the native deflater even if printing fails
+      try (GZIPOutputStream gz = new GZIPOutputStream(new NonClosingStream(out), 64 * 1024)) {
+        print(gz);
+      }
+    } else {
+      print(out);
+    }
+  }
+
+  /**
+   * Keeps the underlying stream open when the gzip stream is closed, so the caller stays in charge of it.
+   */
+  private static class NonClosingStream extends FilterOutputStream {
+    NonClosingStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      // closed by the owner
+      flush();
+    }
+  }
+
   /**
    * Prints the tree into a new UTF8 encoded text file.
+   * Files ending with .gz are compressed with gzip.
    */
   public void print(File f) throws IOException {
-    try (Writer w = new FileWriter(f, StandardCharsets.UTF_8)) {
-      print(w);
-      w.flush();
+    try (OutputStream out = new FileOutputStream(f)) {
+      print(out, f.getName().endsWith(".gz"));
     }
   }
 
   /**
-   * Prints the tree into a given PrintStream using UTF8.
+   * Prints the tree into a given PrintStream using UTF8, just as {@link #print(OutputStream)} does.
    */
   public void print(PrintStream out) throws IOException {
-    print((Appendable)out);
+    print((OutputStream) out);
+  }
+
+  /**
+   * Writes the tree as a binary snapshot which can be loaded much faster than the text tree,
+   * see {@link #simpleSnapshot(InputStream)} and {@link #parsedSnapshot(InputStream)}.
+   * The stream remains open and must be closed by the caller.
+   */
+  public void writeSnapshot(OutputStream out) throws IOException {
+    TreeSnapshot.write(this, out);
+  }
+
+  /**
+   * Writes the tree as a binary snapshot into a new file.
+   */
+  public void writeSnapshot(File f) throws IOException {
+    try (OutputStream out = new FileOutputStream(f)) {
+      writeSnapshot(out);
+    }
+  }
+
+  /**
+   * Loads a simple tree from a binary snapshot written by {@link #writeSnapshot(OutputStream)}.
+   * Snapshots of parsed trees can be loaded too, dropping their parsed names.
+   * The stream is read ahead in large blocks and should not be used for anything else afterwards.
+   *
+   * @throws IOException if the snapshot could not be read, has an unsupported version or a wrong checksum
+   */
+  public static Tree<SimpleTreeNode> simpleSnapshot(InputStream in) throws IOException {
+    return TreeSnapshot.readSimple(in);
+  }
+
+  /**
+   * Loads a parsed tree from a binary snapshot written by {@link #writeSnapshot(OutputStream)}
+   * without parsing any names again.
+   * The stream is read ahead in large blocks and should not be used for anything else afterwards.
+   *
+   * @throws IOException if the snapshot could not be read, has an unsupported version or a wrong checksum
+   * @throws IllegalArgumentException if the snapshot contains a simple tree
+   */
+  public static Tree<ParsedTreeNode> parsedSnapshot(InputStream in) throws IOException {
+    return TreeSnapshot.readParsed(in);
   }
 
   @Override
   public Iterator<T> iterator() {
     return new NNIterator(this);
   }
+
+  /**
+   * @return a new cursor traversing all nodes incl nested synonyms in the order they are printed
+   *         without creating objects per node
+   */
+  public TreeCursor<T> cursor() {
+    return new TreeCursor<>(root);
+  }
+
+  /**
+   * @return a spliterator visiting the nodes in the same order as the iterator and splitting at subtree boundaries
+   */
+  @Override
+  public Spliterator<T> spliterator() {
+    return new TreeSpliterator<>(root, count);
+  }
+
+  /**
+   * @return a sequential stream of all nodes in the same order as the iterator
+   */
+  public Stream<T> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * @return a parallel stream of all nodes which hands out entire subtrees to the worker threads.
+   *         Use forEachOrdered or ordered collectors to keep the order of the iterator.
+   */
+  public Stream<T> parallelStream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
   
   private class NNIter {
     private int synIdx;
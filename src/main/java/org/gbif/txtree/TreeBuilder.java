@@ -0,0 +1,168 @@
+package org.gbif.txtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a simple tree from flat rows with parent and accepted ids, e.g. a database export.
+ * Rows can be added in any order. The tree is assembled in linear time using a primitive id to row map,
+ * keeping siblings in the order their rows were added.
+ *
+ * <pre>
+ * TreeBuilder b = new TreeBuilder();
+ * b.add(1, TreeBuilder.NONE, TreeBuilder.NONE, "Abies Mill.", "genus");
+ * b.add(2, 1, TreeBuilder.NONE, "Abies alba Mill.", "species");
+ * b.add(3, TreeBuilder.NONE, 2, "Picea alba (Mill.) Kuntze", "species");
+ * Tree&lt;SimpleTreeNode&gt; tree = b.build();
+ * </pre>
+ */
+public class TreeBuilder {
+  /**
+   * Id to be used for missing parent or accepted ids.
+   */
+  public static final long NONE = Long.MIN_VALUE;
+  private static final int MAX_REPORTED = 10;
+  private final List<SimpleTreeNode> nodes;
+  // the parent id for accepted nodes or the accepted id for synonyms
+  private long[] targets;
+  private final BitSet synonyms = new BitSet();
+
+  public TreeBuilder() {
+    this(1024);
+  }
+
+  /**
+   * @param expectedSize expected number of rows to avoid resizing
+   */
+  public TreeBuilder(int expectedSize) {
+    nodes = new ArrayList<>(expectedSize);
+    targets = new long[Math.max(16, expectedSize)];
+  }
+
+  public TreeBuilder add(long id, long parentId, long acceptedId, String name, String rank) {
+    return add(id, parentId, acceptedId, name, rank, false, false, false, false, null);
+  }
+
+  /**
+   * Adds a new row. Rows with an accepted id become synonyms of that node and their parent id is ignored.
+   *
+   * @param parentId the parent of an accepted node or {@link #NONE} for root nodes
+   * @param acceptedId the accepted node of a synonym or {@link #NONE} for accepted nodes
+   * @param infos optional infos, the map is kept as it is
+   */
+  public TreeBuilder add(long id, long parentId, long acceptedId, String name, String rank,
+                         boolean extinct, boolean basionym, boolean homotypic, boolean provisional, Map<String, String[]> infos) {
+    if (id == NONE) {
+      throw new IllegalArgumentException("Id is required");
+    }
+    if (name == null) {
+      throw new IllegalArgumentException("Name is required for id " + id);
+    }
+    int idx = nodes.size();
+    if (idx == targets.length) {
+      targets = Arrays.copyOf(targets, idx * 2);
+    }
+    nodes.add(new SimpleTreeNode(id, name, rank, extinct, basionym, homotypic, provisional, infos, null));
+    if (acceptedId != NONE) {
+      synonyms.set(idx);
+      targets[idx] = acceptedId;
+    } else {
+      targets[idx] = parentId;
+    }
+    return this;
+  }
+
+  /**
+   * @return the number of rows added so far
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Assembles the tree from all rows added so far.
+   * The builder should not be used afterwards as the nodes are shared with the tree.
+   *
+   * @throws IllegalArgumentException if ids are duplicated,
+   *                                  parent or accepted ids do not exist (orphans) or nodes form a cycle
+   */
+  public Tree<SimpleTreeNode> build() {
+    final int size = nodes.size();
+    LongIntMap index = new LongIntMap(size);
+    for (int i = 0; i < size; i++) {
+      if (!index.putIfAbsent(nodes.get(i).getId(), i)) {
+        throw new IllegalArgumentException("Duplicate id " + nodes.get(i).getId());
+      }
+    }
+
+    // resolve all parent ids to row indices first, so orphans can be reported together
+    int[] parents = new int[size];
+    List<Long> orphans = new ArrayList<>();
+    int orphanCount = 0;
+    for (int i = 0; i < size; i++) {
+      parents[i] = -1;
+      if (targets[i] != NONE) {
+        parents[i] = index.get(targets[i]);
+        if (parents[i] < 0) {
+          orphanCount++;
+          if (orphans.size() < MAX_REPORTED) {
+            orphans.add(nodes.get(i).getId());
+          }
+        }
+      }
+    }
+    if (orphanCount > 0) {
+      throw new IllegalArgumentException(orphanCount + " orphan nodes with missing parent or accepted ids, e.g. " + orphans);
+    }
+
+    checkCycles(parents);
+
+    Tree<SimpleTreeNode> tree = new Tree<>();
+    for (int i = 0; i < size; i++) {
+      SimpleTreeNode n = nodes.get(i);
+      if (parents[i] < 0) {
+        tree.getRoot().add(n);
+      } else {
+        SimpleTreeNode p = nodes.get(parents[i]);
+        n.parent = p;
+        if (synonyms.get(i)) {
+          p.synonyms.add(n);
+        } else {
+          p.children.add(n);
+        }
+      }
+    }
+    tree.updated(size);
+    return tree;
+  }
+
+  /**
+   * Walks up from every node until a root or an already visited node is reached.
+   * Each node is visited once, so this takes linear time.
+   * @throws IllegalArgumentException listing the ids of the first cycle found
+   */
+  private void checkCycles(int[] parents) {
+    // the row index + 1 of the walk that first visited a node
+    int[] walks = new int[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      int x = i;
+      while (x >= 0 && walks[x] == 0) {
+        walks[x] = i + 1;
+        x = parents[x];
+      }
+      if (x >= 0 && walks[x] == i + 1) {
+        // we came back to a node of the current walk
+        List<Long> cycle = new ArrayList<>();
+        int y = x;
+        do {
+          cycle.add(nodes.get(y).getId());
+          y = parents[y];
+        } while (y != x && cycle.size() < MAX_REPORTED);
+        throw new IllegalArgumentException("Cycle detected between ids " + cycle);
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.gbif.txtree;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Depth first traversal of all nodes, incl synonyms and their nested nodes, in the order they are printed.
+ * A single cursor object is moved from node to node and exposes the depth, parent and classification of the current node,
+ * so no objects are created per node. The pending nodes and the current classification are kept in arrays.
+ *
+ * <pre>
+ * TreeCursor&lt;SimpleTreeNode&gt; c = tree.cursor();
+ * while (c.next()) {
+ *   System.out.println(c.depth() + " " + c.node().name);
+ * }
+ * </pre>
+ *
+ * Cursors are not thread safe and the tree must not be modified while it is traversed.
+ */
+public class TreeCursor<T extends TreeNode<T>> {
+  // nodes still to be visited, the next one being the last
+  private TreeNode<?>[] stack = new TreeNode<?>[64];
+  private int[] depths = new int[64];
+  private boolean[] synonyms = new boolean[64];
+  private int size;
+  // the current node and its parents, indexed by depth
+  private TreeNode<?>[] path = new TreeNode<?>[16];
+  private int depth = -1;
+  private boolean synonym;
+  private final List<T> classification = new Classification();
+
+  TreeCursor(List<T> roots) {
+    for (int i = roots.size() - 1; i >= 0; i--) {
+      push(roots.get(i), 0, false);
+    }
+  }
+
+  /**
+   * Moves the cursor to the next node.
+   * @return false if all nodes have been visited
+   */
+  public boolean next() {
+    if (size == 0) {
+      depth = -1;
+      return false;
+    }
+    size--;
+    TreeNode<?> n = stack[size];
+    stack[size] = null;
+    depth = depths[size];
+    synonym = synonyms[size];
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, depth * 2);
+    }
+    path[depth] = n;
+    // synonyms come before the children, so they are pushed last
+    pushReversed(n.children, depth + 1, false);
+    pushReversed(n.synonyms, depth + 1, true);
+    return true;
+  }
+
+  private void pushReversed(List<? extends TreeNode<?>> list, int level, boolean syn) {
+    if (!list.isEmpty()) {
+      int start = size;
+      for (TreeNode<?> n : list) {
+        push(n, level, syn);
+      }
+      for (int i = start, j = size - 1; i < j; i++, j--) {
+        TreeNode<?> tmp = stack[i];
+        stack[i] = stack[j];
+        stack[j] = tmp;
+      }
+    }
+  }
+
+  private void push(TreeNode<?> n, int level, boolean syn) {
+    if (size == stack.length) {
+      stack = Arrays.copyOf(stack, size * 2);
+      depths = Arrays.copyOf(depths, size * 2);
+      synonyms = Arrays.copyOf(synonyms, size * 2);
+    }
+    stack[size] = n;
+    depths[size] = level;
+    synonyms[size] = syn;
+    size++;
+  }
+
+  private void current() {
+    if (depth < 0) {
+      throw new IllegalStateException("Cursor is not positioned on a node");
+    }
+  }
+
+  /**
+   * @return the current node
+   */
+  @SuppressWarnings("unchecked")
+  public T node() {
+    current();
+    return (T) path[depth];
+  }
+
+  /**
+   * @return the depth of the current node, zero for root nodes
+   */
+  public int depth() {
+    current();
+    return depth;
+  }
+
+  /**
+   * @return the parent of the current node or for synonyms their accepted name, null for root nodes
+   */
+  @SuppressWarnings("unchecked")
+  public T parent() {
+    current();
+    return depth == 0 ? null : (T) path[depth - 1];
+  }
+
+  /**
+   * @return true if the current node is a synonym of its parent
+   */
+  public boolean isSynonym() {
+    current();
+    return synonym;
+  }
+
+  /**
+   * @return all parents of the current node starting with the root.
+   *         The list is a live view which changes when the cursor moves on and must be copied to be kept.
+   */
+  public List<T> classification() {
+    current();
+    return classification;
+  }
+
+  private class Classification extends AbstractList<T> {
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      if (index < 0 || index >= depth) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of classification size " + depth);
+      }
+      return (T) path[index];
+    }
+
+    @Override
+    public int size() {
+      return Math.max(depth, 0);
+    }
+  }
+}
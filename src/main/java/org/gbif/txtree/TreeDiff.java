@@ -0,0 +1,413 @@
+package org.gbif.txtree;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Structural diff of two trees, e.g. two nub build outputs.
+ * Nodes are matched by their name using hash chains instead of comparing all nodes with each other:
+ * first by name and parent name, then by name alone, each preferring nodes below the already matched parent.
+ * Remaining nodes are matched as renamed if most of their children moved along
+ * or if they are the only unmatched node of the same rank below matching parents.
+ *
+ * Memory needed is linear with a few ints per node and changes can be streamed to a consumer.
+ * A node moved together with its entire subtree is reported as a single move.
+ */
+public class TreeDiff {
+
+  public enum Type {
+    INSERTED,
+    DELETED,
+    MOVED,
+    RENAMED,
+    /**
+     * An accepted name became a synonym or vice versa.
+     */
+    SYNONYM_STATUS,
+    RANK,
+    /**
+     * Changed extinct, basionym, homotypic or provisional flags.
+     */
+    FLAGS
+  }
+
+  public static class Change<T extends TreeNode<T>> {
+    public final Type type;
+    // null for inserted nodes
+    public final T oldNode;
+    // null for deleted nodes
+    public final T newNode;
+
+    public Change(Type type, T oldNode, T newNode) {
+      this.type = type;
+      this.oldNode = oldNode;
+      this.newNode = newNode;
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + (oldNode == null ? "" : oldNode.getId() + ":" + oldNode)
+          + (oldNode != null && newNode != null ? " -> " : "")
+          + (newNode == null ? "" : newNode.getId() + ":" + newNode);
+    }
+  }
+
+  private TreeDiff() {
+  }
+
+  /**
+   * @return all changes of matched and inserted nodes in breadth first order of the new tree, followed by all deleted nodes
+   */
+  public static <T extends TreeNode<T>> List<Change<T>> diff(Tree<T> oldTree, Tree<T> newTree) {
+    List<Change<T>> changes = new ArrayList<>();
+    diff(oldTree, newTree, changes::add);
+    return changes;
+  }
+
+  /**
+   * Streams all changes to a consumer without keeping them in memory.
+   * Changes of matched and inserted nodes are reported in breadth first order of the new tree, followed by all deleted nodes.
+   */
+  public static <T extends TreeNode<T>> void diff(Tree<T> oldTree, Tree<T> newTree, Consumer<Change<T>> consumer) {
+    new Matcher<>(new Side<>(oldTree), new Side<>(newTree)).diff(consumer);
+  }
+
+  /**
+   * All nodes of one tree in breadth first order with their parent positions.
+   */
+  private static class Side<T extends TreeNode<T>> {
+    final List<T> nodes = new ArrayList<>();
+    final IntList parent = new IntList();
+    final BitSet synonym = new BitSet();
+    // children and synonyms of each position are stored consecutively after their parent
+    final IntList firstChild = new IntList();
+    final IntList childCount = new IntList();
+    int[] match;
+
+    Side(Tree<T> tree) {
+      // breadth first, so siblings get consecutive positions and parents come before their children
+      for (T n : tree.getRoot()) {
+        add(n, -1, false);
+      }
+      for (int i = 0; i < nodes.size(); i++) {
+        T n = nodes.get(i);
+        firstChild.add(nodes.size());
+        for (T s : n.synonyms) {
+          add(s, i, true);
+        }
+        for (T c : n.children) {
+          add(c, i, false);
+        }
+        childCount.add(nodes.size() - firstChild.get(i));
+      }
+      match = new int[nodes.size()];
+      Arrays.fill(match, -1);
+    }
+
+    private void add(T n, int parentPos, boolean syn) {
+      if (syn) {
+        synonym.set(nodes.size());
+      }
+      nodes.add(n);
+      parent.add(parentPos);
+    }
+
+    int size() {
+      return nodes.size();
+    }
+
+    String parentName(int pos) {
+      int p = parent.get(pos);
+      return p < 0 ? null : nodes.get(p).name;
+    }
+  }
+
+  /**
+   * Hash chains over all unmatched nodes of the old tree.
+   * Matched nodes are unlinked while scanning, so chains shrink as matching proceeds.
+   */
+  private static class Chains {
+    final int[] heads;
+    final int[] next;
+
+    Chains(int size) {
+      heads = new int[Integer.highestOneBit(Math.max(4, size * 2 - 1)) << 1];
+      Arrays.fill(heads, -1);
+      next = new int[size];
+    }
+
+    void add(int pos, int hash) {
+      int b = hash & (heads.length - 1);
+      next[pos] = heads[b];
+      heads[b] = pos;
+    }
+  }
+
+  private static class Matcher<T extends TreeNode<T>> {
+    final Side<T> a;
+    final Side<T> b;
+
+    Matcher(Side<T> a, Side<T> b) {
+      this.a = a;
+      this.b = b;
+    }
+
+    static int hash(String name, String parentName) {
+      int h = 31 * Objects.hashCode(name) + Objects.hashCode(parentName);
+      return h ^ (h >>> 16);
+    }
+
+    static int hash(String name) {
+      int h = Objects.hashCode(name);
+      return h ^ (h >>> 16);
+    }
+
+    void diff(Consumer<Change<T>> consumer) {
+      Chains byParent = new Chains(a.size());
+      Chains byParentName = new Chains(a.size());
+      Chains byName = new Chains(a.size());
+      // add in reverse so chains keep the tree order
+      for (int i = a.size() - 1; i >= 0; i--) {
+        String name = a.nodes.get(i).name;
+        byParent.add(i, hash(name, a.parent.get(i)));
+        byParentName.add(i, hash(name, a.parentName(i)));
+        byName.add(i, hash(name));
+      }
+      for (int j = 0; j < b.size(); j++) {
+        int i = find(j, byParent, byParentName, byName);
+        if (i >= 0) {
+          link(i, j);
+        }
+      }
+      matchByChildren();
+      matchBySiblings();
+      report(consumer);
+    }
+
+    private void link(int i, int j) {
+      a.match[i] = j;
+      b.match[j] = i;
+    }
+
+    private boolean parentsMatch(int i, int j) {
+      int pa = a.parent.get(i);
+      int pb = b.parent.get(j);
+      return pa < 0 ? pb < 0 : pb >= 0 && a.match[pa] == pb;
+    }
+
+    static int hash(String name, int parentPos) {
+      int h = 31 * Objects.hashCode(name) + parentPos;
+      return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the unmatched old node for new node j with the same name, preferring
+     * a node below the matched parent with the same parent name,
+     * then any node with the same parent name,
+     * then any node below the matched parent and finally any node with the same name, each in tree order.
+     */
+    private int find(int j, Chains byParent, Chains byParentName, Chains byName) {
+      String name = b.nodes.get(j).name;
+      String parentName = b.parentName(j);
+      int pb = b.parent.get(j);
+      // the old position of the new parent, -1 for roots
+      int pa = pb < 0 ? -1 : b.match[pb];
+      int below = -1;
+      if (pb < 0 || pa >= 0) {
+        int parentPos = pa;
+        below = first(byParent, hash(name, parentPos), i -> a.parent.get(i) == parentPos && a.nodes.get(i).name.equals(name));
+        if (below >= 0 && Objects.equals(parentName, a.parentName(below))) {
+          return below;
+        }
+      }
+      int i = first(byParentName, hash(name, parentName), x -> a.nodes.get(x).name.equals(name) && Objects.equals(parentName, a.parentName(x)));
+      if (i >= 0) {
+        return i;
+      }
+      return below >= 0 ? below : first(byName, hash(name), x -> a.nodes.get(x).name.equals(name));
+    }
+
+    /**
+     * Returns the first unmatched node of a chain with the given key.
+     * Chains only hold nodes of a single key apart from rare hash collisions
+     * and matched nodes are unlinked while scanning, so lookups take constant amortized time.
+     */
+    private int first(Chains chains, int hash, IntPredicate sameKey) {
+      int bucket = hash & (chains.heads.length - 1);
+      int prev = -1;
+      int i = chains.heads[bucket];
+      while (i >= 0) {
+        int next = chains.next[i];
+        if (a.match[i] >= 0) {
+          // unlink matched nodes
+          if (prev < 0) {
+            chains.heads[bucket] = next;
+          } else {
+            chains.next[prev] = next;
+          }
+        } else {
+          if (sameKey.test(i)) {
+            return i;
+          }
+          prev = i;
+        }
+        i = next;
+      }
+      return -1;
+    }
+
+    /**
+     * Matches unmatched new nodes with the unmatched old parent of most of their matched children.
+     */
+    private void matchByChildren() {
+      for (int j = 0; j < b.size(); j++) {
+        if (b.match[j] >= 0 || b.childCount.get(j) == 0) {
+          continue;
+        }
+        // majority vote
+        int candidate = -1;
+        int votes = 0;
+        int start = b.firstChild.get(j);
+        int end = start + b.childCount.get(j);
+        for (int c = start; c < end; c++) {
+          int ac = b.match[c];
+          int p = ac < 0 ? -1 : a.parent.get(ac);
+          if (votes == 0) {
+            candidate = p;
+            votes = 1;
+          } else if (p == candidate) {
+            votes++;
+          } else {
+            votes--;
+          }
+        }
+        if (candidate >= 0 && a.match[candidate] < 0) {
+          int count = 0;
+          for (int c = start; c < end; c++) {
+            int ac = b.match[c];
+            if (ac >= 0 && a.parent.get(ac) == candidate) {
+              count++;
+            }
+          }
+          if (count * 2 > b.childCount.get(j)) {
+            link(candidate, j);
+          }
+        }
+      }
+    }
+
+    /**
+     * Matches the single unmatched child or synonym of a given rank below matching parents.
+     */
+    private void matchBySiblings() {
+      // roots have no parent and are treated as children of a virtual matched parent
+      siblings(roots(a), roots(b));
+      for (int j = 0; j < b.size(); j++) {
+        int i = b.match[j];
+        if (i >= 0 && b.childCount.get(j) > 0 && a.childCount.get(i) > 0) {
+          siblings(range(a, i), range(b, j));
+        }
+      }
+    }
+
+    private static int[] roots(Side<?> side) {
+      int n = 0;
+      while (n < side.size() && side.parent.get(n) < 0) {
+        n++;
+      }
+      return new int[]{0, n};
+    }
+
+    private static int[] range(Side<?> side, int pos) {
+      int start = side.firstChild.get(pos);
+      return new int[]{start, start + side.childCount.get(pos)};
+    }
+
+    private void siblings(int[] ra, int[] rb) {
+      Map<String, Integer> unmatchedA = unmatched(a, ra);
+      if (unmatchedA == null) {
+        return;
+      }
+      Map<String, Integer> unmatchedB = unmatched(b, rb);
+      if (unmatchedB == null) {
+        return;
+      }
+      for (Map.Entry<String, Integer> e : unmatchedB.entrySet()) {
+        Integer i = unmatchedA.get(e.getKey());
+        if (e.getValue() >= 0 && i != null && i >= 0) {
+          link(i, e.getValue());
+        }
+      }
+    }
+
+    /**
+     * @return the single unmatched position for each rank and synonym status or -1 if there are several,
+     *         null if all are matched
+     */
+    private static Map<String, Integer> unmatched(Side<?> side, int[] range) {
+      Map<String, Integer> map = null;
+      for (int p = range[0]; p < range[1]; p++) {
+        if (side.match[p] < 0) {
+          if (map == null) {
+            map = new HashMap<>();
+          }
+          String key = side.synonym.get(p) + ":" + side.nodes.get(p).rank;
+          map.merge(key, p, (x, y) -> -1);
+        }
+      }
+      return map;
+    }
+
+    private void report(Consumer<Change<T>> consumer) {
+      for (int j = 0; j < b.size(); j++) {
+        T nb = b.nodes.get(j);
+        int i = b.match[j];
+        if (i < 0) {
+          consumer.accept(new Change<>(Type.INSERTED, null, nb));
+          continue;
+        }
+        T na = a.nodes.get(i);
+        if (!na.name.equals(nb.name)) {
+          consumer.accept(new Change<>(Type.RENAMED, na, nb));
+        }
+        if (a.synonym.get(i) != b.synonym.get(j)) {
+          consumer.accept(new Change<>(Type.SYNONYM_STATUS, na, nb));
+        }
+        if (!parentsMatch(i, j)) {
+          consumer.accept(new Change<>(Type.MOVED, na, nb));
+        }
+        if (!Objects.equals(na.rank, nb.rank)) {
+          consumer.accept(new Change<>(Type.RANK, na, nb));
+        }
+        if (na.extinct != nb.extinct || na.basionym != nb.basionym || na.homotypic != nb.homotypic || na.provisional != nb.provisional) {
+          consumer.accept(new Change<>(Type.FLAGS, na, nb));
+        }
+      }
+      for (int i = 0; i < a.size(); i++) {
+        if (a.match[i] < 0) {
+          consumer.accept(new Change<>(Type.DELETED, a.nodes.get(i), null));
+        }
+      }
+    }
+  }
+
+  /**
+   * Growable list of primitive ints.
+   */
+  private static class IntList {
+    private int[] data = new int[16];
+    private int size;
+
+    void add(int x) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, size * 2);
+      }
+      data[size++] = x;
+    }
+
+    int get(int idx) {
+      return data[idx];
+    }
+  }
+}
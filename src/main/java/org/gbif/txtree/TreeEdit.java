@@ -0,0 +1,37 @@
+package org.gbif.txtree;
+
+/**
+ * A changed range of lines in a text tree, used to update a parsed tree incrementally.
+ * Line numbers refer to the document before the edit and start with 1 just as node ids do.
+ */
+public class TreeEdit {
+  public final long line;
+  public final int removed;
+  public final int added;
+
+  /**
+   * @param line the first changed line, or for pure insertions the line the new lines are inserted before
+   * @param removed number of lines removed from the original document, starting with line
+   * @param added number of lines found in their place in the edited document
+   */
+  public TreeEdit(long line, int removed, int added) {
+    if (line < 1 || removed < 0 || added < 0) {
+      throw new IllegalArgumentException("Bad tree edit at line " + line + " removing " + removed + " and adding " + added + " lines");
+    }
+    this.line = line;
+    this.removed = removed;
+    this.added = added;
+  }
+
+  /**
+   * A single line changed in place.
+   */
+  public static TreeEdit changed(long line) {
+    return new TreeEdit(line, 1, 1);
+  }
+
+  @Override
+  public String toString() {
+    return "line " + line + " -" + removed + " +" + added;
+  }
+}
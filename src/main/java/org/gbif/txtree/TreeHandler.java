@@ -0,0 +1,47 @@
+package org.gbif.txtree;
+
+import java.util.List;
+
+/**
+ * Callback interface to stream through a text tree without building the entire tree in memory.
+ * Similar to SAX all nodes are reported in the order of their lines
+ * and only the current parent path is kept in memory, so memory is bounded by the depth of the tree.
+ *
+ * Nodes passed to a handler never have any synonyms or children attached.
+ */
+public interface TreeHandler<T extends TreeNode<T>> {
+
+  /**
+   * Called once before the first line is read.
+   */
+  default void startTree() {
+  }
+
+  /**
+   * Called for every accepted node.
+   * @param node the new node
+   * @param parents the current classification with the direct parent being the last entry.
+   *                The list is empty for root nodes and only valid during the callback.
+   */
+  void startNode(T node, List<T> parents);
+
+  /**
+   * Called for every synonym.
+   * @param synonym the new synonym node
+   * @param parents the current classification with the accepted node being the last entry.
+   *                The list is only valid during the callback.
+   */
+  void synonym(T synonym, List<T> parents);
+
+  /**
+   * Called for every accepted or synonym node once all its nested lines have been processed.
+   */
+  default void endNode(T node) {
+  }
+
+  /**
+   * Called once after the last line has been processed.
+   */
+  default void endTree() {
+  }
+}
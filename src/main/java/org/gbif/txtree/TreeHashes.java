@@ -0,0 +1,323 @@
+package org.gbif.txtree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Merkle style content hashes for every subtree of a tree.
+ * The hash of a node covers its name, rank, flags and infos followed by the hashes of all its synonyms and children in order,
+ * so two subtrees with the same hash print the same text apart from comments and indentation.
+ * Ids and comments are not included, so inserting lines elsewhere does not change a subtree's hash.
+ *
+ * Hashes are 128 bits, computed bottom up one depth level at a time with large levels being hashed in parallel.
+ * They are stable across JVMs and versions of this library, so they can be used as cache keys for downstream processing.
+ * Comparing two trees or subtrees is then a single hash comparison
+ * and {@link #changed(TreeHashes)} only descends into subtrees that differ.
+ *
+ * Hashes are computed for a {@link FrozenTree} and are immutable and thread safe.
+ */
+public class TreeHashes<T extends TreeNode<T>> {
+  private static final int PARALLEL_THRESHOLD = 4096;
+  private static final long P1 = 0x9E3779B97F4A7C15L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private final FrozenTree<T> tree;
+  private final long[] hash1;
+  private final long[] hash2;
+  private final long root1;
+  private final long root2;
+  private volatile Map<T, Integer> positions;
+
+  /**
+   * Freezes the tree and hashes all its subtrees.
+   */
+  public static <T extends TreeNode<T>> TreeHashes<T> of(Tree<T> tree) {
+    return new TreeHashes<>(tree.freeze());
+  }
+
+  public static <T extends TreeNode<T>> TreeHashes<T> of(FrozenTree<T> tree) {
+    return new TreeHashes<>(tree);
+  }
+
+  private TreeHashes(FrozenTree<T> tree) {
+    this.tree = tree;
+    hash1 = new long[tree.size()];
+    hash2 = new long[tree.size()];
+    // nodes are stored breadth first, so every depth level is a consecutive range following its parent level
+    List<int[]> levels = new ArrayList<>();
+    int start = 0;
+    int end = tree.rootCount();
+    while (start < end) {
+      levels.add(new int[]{start, end});
+      int next = tree.synonymStart(start);
+      end = tree.childEnd(end - 1);
+      start = next;
+    }
+    for (int l = levels.size() - 1; l >= 0; l--) {
+      IntStream range = IntStream.range(levels.get(l)[0], levels.get(l)[1]);
+      if (levels.get(l)[1] - levels.get(l)[0] >= PARALLEL_THRESHOLD) {
+        range = range.parallel();
+      }
+      range.forEach(this::hash);
+    }
+    Hasher h = new Hasher();
+    h.add(tree.rootCount());
+    for (int i = 0; i < tree.rootCount(); i++) {
+      h.add(hash1[i], hash2[i]);
+    }
+    root1 = h.finish1();
+    root2 = h.finish2();
+  }
+
+  private void hash(int idx) {
+    Hasher h = new Hasher();
+    addContent(h, tree.node(idx));
+    int syn = tree.synonymStart(idx);
+    int child = tree.childStart(idx);
+    int end = tree.childEnd(idx);
+    h.add(child - syn);
+    for (int i = syn; i < child; i++) {
+      h.add(hash1[i], hash2[i]);
+    }
+    h.add(end - child);
+    for (int i = child; i < end; i++) {
+      h.add(hash1[i], hash2[i]);
+    }
+    hash1[idx] = h.finish1();
+    hash2[idx] = h.finish2();
+  }
+
+  private static void addContent(Hasher h, TreeNode<?> n) {
+    h.add(n.name);
+    h.add(n.rank);
+    h.add((n.extinct ? 1 : 0) | (n.basionym ? 2 : 0) | (n.homotypic ? 4 : 0) | (n.provisional ? 8 : 0));
+    if (n.infos == null) {
+      h.add(0);
+    } else {
+      h.add(n.infos.size());
+      for (Map.Entry<String, String[]> e : n.infos.entrySet()) {
+        h.add(e.getKey());
+        h.add(e.getValue().length);
+        for (String v : e.getValue()) {
+          h.add(v);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the frozen tree the hashes were computed for
+   */
+  public FrozenTree<T> tree() {
+    return tree;
+  }
+
+  /**
+   * @return the hash of the entire tree as 32 hex characters
+   */
+  public String digest() {
+    return hex(root1, root2);
+  }
+
+  /**
+   * @return the hash of the subtree of the given node as 32 hex characters
+   * @throws IllegalArgumentException if the node is not part of the tree
+   */
+  public String digest(T node) {
+    int idx = indexOf(node);
+    return hex(hash1[idx], hash2[idx]);
+  }
+
+  /**
+   * @return true if both trees have the same content
+   */
+  public boolean sameTree(TreeHashes<T> other) {
+    return root1 == other.root1 && root2 == other.root2;
+  }
+
+  /**
+   * @return true if the subtree of a node of this tree has the same content as the subtree of a node of another tree
+   */
+  public boolean sameSubtree(T node, TreeHashes<T> other, T otherNode) {
+    int i = indexOf(node);
+    int j = other.indexOf(otherNode);
+    return hash1[i] == other.hash1[j] && hash2[i] == other.hash2[j];
+  }
+
+  private int indexOf(T node) {
+    // ids are shifted when the tree is updated later on, so only use them as a shortcut
+    int idx = tree.indexOf(node.getId());
+    if (idx >= 0 && tree.node(idx) == node) {
+      return idx;
+    }
+    Integer pos = positions().get(node);
+    if (pos == null) {
+      throw new IllegalArgumentException("Node " + node.getId() + " is not part of the tree");
+    }
+    return pos;
+  }
+
+  /**
+   * @return the position of every node by identity, built on first use
+   */
+  private Map<T, Integer> positions() {
+    Map<T, Integer> map = positions;
+    if (map == null) {
+      synchronized (this) {
+        map = positions;
+        if (map == null) {
+          map = new IdentityHashMap<>(tree.size());
+          for (int i = 0; i < tree.size(); i++) {
+            map.put(tree.node(i), i);
+          }
+          positions = map;
+        }
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Finds the nodes which changed compared to an older version of the tree, only descending into subtrees with different hashes.
+   * Synonyms and children are matched by their name below matched parents.
+   * Reported are all nodes of this tree which are new, whose name, rank, flags or infos changed
+   * or whose synonyms or children were removed or reordered. Nested changes are reported for the deepest node only.
+   * Root nodes removed from the old tree cannot be reported, but {@link #sameTree(TreeHashes)} tells if the trees differ at all.
+   *
+   * @return the changed nodes
+   */
+  public List<T> changed(TreeHashes<T> old) {
+    List<T> changes = new ArrayList<>();
+    if (sameTree(old)) {
+      return changes;
+    }
+    ArrayDeque<int[]> queue = new ArrayDeque<>();
+    compare(0, tree.rootCount(), old, 0, old.tree.rootCount(), queue, changes);
+    while (!queue.isEmpty()) {
+      int[] pair = queue.poll();
+      int i = pair[0];
+      int j = pair[1];
+      boolean listsChanged = compare(tree.synonymStart(i), tree.childStart(i), old, old.tree.synonymStart(j), old.tree.childStart(j), queue, changes);
+      listsChanged |= compare(tree.childStart(i), tree.childEnd(i), old, old.tree.childStart(j), old.tree.childEnd(j), queue, changes);
+      if (listsChanged || !sameContent(tree.node(i), old.tree.node(j))) {
+        changes.add(tree.node(i));
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Matches the nodes of two sibling ranges by name, reporting unmatched new nodes and queuing matched pairs with different hashes.
+   * @return true if old nodes were removed or matched nodes are in a different order
+   */
+  private boolean compare(int from, int to, TreeHashes<T> old, int oldFrom, int oldTo, ArrayDeque<int[]> queue, List<T> changes) {
+    // siblings usually stay in place, so match by position until the first name differs
+    while (from < to && oldFrom < oldTo) {
+      if (hash1[from] != old.hash1[oldFrom] || hash2[from] != old.hash2[oldFrom]) {
+        if (!tree.node(from).name.equals(old.tree.node(oldFrom).name)) {
+          break;
+        }
+        queue.add(new int[]{from, oldFrom});
+      }
+      from++;
+      oldFrom++;
+    }
+    if (from == to && oldFrom == oldTo) {
+      return false;
+    }
+    Map<String, ArrayDeque<Integer>> byName = new HashMap<>();
+    for (int j = oldFrom; j < oldTo; j++) {
+      byName.computeIfAbsent(old.tree.node(j).name, k -> new ArrayDeque<>()).add(j);
+    }
+    boolean reordered = false;
+    int matched = 0;
+    int last = -1;
+    for (int i = from; i < to; i++) {
+      ArrayDeque<Integer> candidates = byName.get(tree.node(i).name);
+      Integer j = candidates == null ? null : candidates.poll();
+      if (j == null) {
+        changes.add(tree.node(i));
+      } else {
+        matched++;
+        if (j < last) {
+          reordered = true;
+        }
+        last = j;
+        if (hash1[i] != old.hash1[j] || hash2[i] != old.hash2[j]) {
+          queue.add(new int[]{i, j});
+        }
+      }
+    }
+    return reordered || matched < oldTo - oldFrom;
+  }
+
+  private static boolean sameContent(TreeNode<?> n1, TreeNode<?> n2) {
+    Hasher h1 = new Hasher();
+    addContent(h1, n1);
+    Hasher h2 = new Hasher();
+    addContent(h2, n2);
+    return h1.finish1() == h2.finish1() && h1.finish2() == h2.finish2();
+  }
+
+  private static String hex(long h1, long h2) {
+    return String.format("%016x%016x", h1, h2);
+  }
+
+  /**
+   * Two independent 64 bit multiply rotate lanes with a final avalanche step.
+   * Strings are added with their length and 4 chars per step.
+   */
+  private static class Hasher {
+    private long a = 0x243F6A8885A308D3L;
+    private long b = 0x13198A2E03707344L;
+
+    void add(long v) {
+      a = Long.rotateLeft((a ^ v) * P1, 31);
+      b = Long.rotateLeft((b ^ v) * P2, 27);
+    }
+
+    void add(long v1, long v2) {
+      add(v1);
+      add(v2);
+    }
+
+    void add(String s) {
+      if (s == null) {
+        add(-1);
+        return;
+      }
+      int len = s.length();
+      add(len);
+      int i = 0;
+      for (; i + 4 <= len; i += 4) {
+        add(((long) s.charAt(i) << 48) | ((long) s.charAt(i + 1) << 32) | ((long) s.charAt(i + 2) << 16) | s.charAt(i + 3));
+      }
+      long rest = 0;
+      for (; i < len; i++) {
+        rest = (rest << 16) | s.charAt(i);
+      }
+      add(rest);
+    }
+
+    long finish1() {
+      return mix(a);
+    }
+
+    long finish2() {
+      return mix(b ^ a);
+    }
+
+    private static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      h *= 0xC4CEB9FE1A85EC53L;
+      h ^= h >>> 33;
+      return h;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package org.gbif.txtree;
+
+import java.util.*;
+
+/**
+ * Lookup of tree nodes by their name, canonical name or id in constant time.
+ * The index covers all nodes incl synonyms and everything nested below them.
+ * It reflects the tree at the time it was built and is not updated when the tree is modified afterwards.
+ *
+ * Names are kept in maps pointing to single nodes, only names shared by several nodes need a list.
+ * Ids are kept in a primitive map pointing into an array of all nodes.
+ */
+public class TreeIndex<T extends TreeNode<T>> {
+  private final Object[] nodes;
+  private final LongIntMap ids;
+  private final Map<String, Object> names = new HashMap<>();
+  private final Map<String, Object> canonicalNames;
+
+  TreeIndex(Tree<T> tree) {
+    int size = (int) Math.min(Integer.MAX_VALUE - 8, tree.size());
+    List<T> all = new ArrayList<>(size);
+    Deque<T> stack = new ArrayDeque<>();
+    for (int i = tree.getRoot().size() - 1; i >= 0; i--) {
+      stack.push(tree.getRoot().get(i));
+    }
+    while (!stack.isEmpty()) {
+      T n = stack.pop();
+      all.add(n);
+      for (Iterator<T> it = n.children.descendingIterator(); it.hasNext(); ) {
+        stack.push(it.next());
+      }
+      for (Iterator<T> it = n.synonyms.descendingIterator(); it.hasNext(); ) {
+        stack.push(it.next());
+      }
+    }
+    nodes = all.toArray();
+    ids = new LongIntMap(nodes.length);
+    boolean parsed = nodes.length > 0 && nodes[0] instanceof ParsedTreeNode;
+    canonicalNames = parsed ? new HashMap<>() : null;
+    for (int i = 0; i < nodes.length; i++) {
+      T n = node(i);
+      ids.putIfAbsent(n.getId(), i);
+      add(names, n.name, n);
+      if (parsed) {
+        ParsedTreeNode pn = (ParsedTreeNode) n;
+        if (pn.parsedName != null) {
+          add(canonicalNames, pn.parsedName.canonicalName(), n);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void add(Map<String, Object> map, String key, T n) {
+    if (key == null) {
+      return;
+    }
+    Object existing = map.putIfAbsent(key, n);
+    if (existing instanceof List) {
+      ((List<T>) existing).add(n);
+    } else if (existing != null) {
+      List<T> list = new ArrayList<>(2);
+      list.add((T) existing);
+      list.add(n);
+      map.put(key, list);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private T node(int idx) {
+    return (T) nodes[idx];
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<T> lookup(Map<String, Object> map, String key) {
+    Object val = map.get(key);
+    if (val == null) {
+      return Collections.emptyList();
+    } else if (val instanceof List) {
+      return Collections.unmodifiableList((List<T>) val);
+    }
+    return Collections.singletonList((T) val);
+  }
+
+  /**
+   * @return the number of indexed nodes
+   */
+  public int size() {
+    return nodes.length;
+  }
+
+  /**
+   * @return the node with the given id, i.e. line number, or null.
+   * If several nodes share the same id the first one in depth first order is returned.
+   */
+  public T byId(long id) {
+    int idx = ids.get(id);
+    return idx < 0 ? null : node(idx);
+  }
+
+  /**
+   * @return all nodes with exactly the given name incl authorship, never null
+   */
+  public List<T> byName(String name) {
+    return lookup(names, name);
+  }
+
+  /**
+   * @return all parsed nodes with the given canonical name, never null
+   * @throws UnsupportedOperationException if the tree does not contain parsed nodes
+   */
+  public List<T> byCanonicalName(String canonicalName) {
+    if (canonicalNames == null) {
+      throw new UnsupportedOperationException("Canonical names are only indexed for parsed trees");
+    }
+    return lookup(canonicalNames, canonicalName);
+  }
+}
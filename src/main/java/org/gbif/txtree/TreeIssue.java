@@ -0,0 +1,36 @@
+package org.gbif.txtree;
+
+import java.util.Objects;
+
+/**
+ * An issue found by a {@link TreeRule}, located by the line number of the offending node.
+ */
+public class TreeIssue {
+  public final long line;
+  public final String rule;
+  public final String message;
+
+  public TreeIssue(long line, String rule, String message) {
+    this.line = line;
+    this.rule = rule;
+    this.message = message;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof TreeIssue)) return false;
+    TreeIssue that = (TreeIssue) o;
+    return line == that.line && Objects.equals(rule, that.rule) && Objects.equals(message, that.message);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(line, rule, message);
+  }
+
+  @Override
+  public String toString() {
+    return "line " + line + " [" + rule + "] " + message;
+  }
+}
@@ -1,13 +1,22 @@
 package org.gbif.txtree;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Simple bean for representing a node in a taxonomic tree.
  */
 abstract class TreeNode<T extends TreeNode<T>> {
+  /**
+   * The line number the node was parsed from. It is not changed by {@link Tree#update(List, List)},
+   * use {@link #getId()} for the current line number.
+   */
   public final long id;
   public final String name;
   public final String rank;
@@ -19,6 +28,11 @@ abstract class TreeNode<T extends TreeNode<T>> {
   public final LinkedList<T> children = new LinkedList<>();
   public final Map<String, String[]> infos;
   public final String comment;
+  // the accepted parent or, for synonyms, the accepted name. Set when a node is attached to a tree
+  T parent;
+  // the current line number, valid up to the given line shift of the tree. Null for nodes never attached by a parser
+  private long line;
+  private volatile LineShift shifted;
 
   public TreeNode(long id, String name, String rank, boolean extinct, boolean isBasionym, boolean homotypic, boolean provisional) {
     this(id, name, rank, extinct, isBasionym, homotypic, provisional, null, null);
@@ -26,6 +40,7 @@ abstract class TreeNode<T extends TreeNode<T>> {
 
   public TreeNode(long id, String name, String rank, boolean extinct, boolean isBasionym, boolean homotypic, boolean provisional, Map<String, String[]> infos, String comment) {
     this.id = id;
+    this.line = id;
     this.name = name;
     this.rank = rank;
     this.extinct = extinct;
@@ -36,6 +51,61 @@ abstract class TreeNode<T extends TreeNode<T>> {
     this.comment = comment;
   }
 
+  /**
+   * @return the current line number of the node, shifted when lines are added or removed by {@link Tree#update(List, List)}
+   */
+  public long getId() {
+    LineShift s = shifted;
+    if (s == null || s.next == null) {
+      return line;
+    }
+    return resolve();
+  }
+
+  /**
+   * Applies all line shifts appended since the line was last resolved.
+   */
+  private synchronized long resolve() {
+    LineShift s = shifted;
+    long l = line;
+    while (s.next != null) {
+      s = s.next;
+      l = s.apply(l);
+    }
+    line = l;
+    shifted = s;
+    return l;
+  }
+
+  /**
+   * Attaches the node to the line shifts of a tree, its line being valid up to the given shift.
+   */
+  void attach(LineShift shift) {
+    shifted = shift;
+  }
+
+  /**
+   * @return the parent node or for synonyms their accepted name.
+   * Null for root nodes and nodes which have not been attached by a parser or snapshot loader.
+   */
+  public T getParent() {
+    return parent;
+  }
+
+  /**
+   * Walks up the parent links to build the classification of this node in O(depth).
+   *
+   * @return all parents starting with the root node and ending with the direct parent
+   */
+  public List<T> classification() {
+    List<T> path = new ArrayList<>();
+    for (T p = parent; p != null; p = p.parent) {
+      path.add(p);
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -60,7 +130,56 @@ abstract class TreeNode<T extends TreeNode<T>> {
     return buf.toString();
   }
 
+  /**
+   * Prints the node with all its synonyms and children at the given indentation level.
+   * Nodes are visited iteratively, so subtrees of any depth can be printed.
+   */
   public void print(Appendable out, int level, boolean synonym) throws IOException {
+    PrintStack stack = new PrintStack();
+    stack.push(this, level, synonym);
+    while (stack.size > 0) {
+      stack.size--;
+      TreeNode<?> n = stack.nodes[stack.size];
+      int lvl = stack.levels[stack.size];
+      boolean syn = stack.synonyms[stack.size];
+      stack.nodes[stack.size] = null;
+      n.printLine(out, lvl, syn);
+      // synonyms are printed before the children, so they are pushed last
+      stack.pushReversed(n.children, lvl + 1, false);
+      stack.pushReversed(n.synonyms, lvl + 1, true);
+    }
+  }
+
+  /**
+   * Explicit stack of the nodes still to be printed, as used by the {@link TreeWriter}.
+   */
+  private static class PrintStack {
+    private TreeNode<?>[] nodes = new TreeNode<?>[16];
+    private int[] levels = new int[16];
+    private boolean[] synonyms = new boolean[16];
+    private int size;
+
+    void pushReversed(LinkedList<? extends TreeNode<?>> list, int level, boolean synonym) {
+      Iterator<? extends TreeNode<?>> iter = list.descendingIterator();
+      while (iter.hasNext()) {
+        push(iter.next(), level, synonym);
+      }
+    }
+
+    void push(TreeNode<?> n, int level, boolean synonym) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+        levels = Arrays.copyOf(levels, size * 2);
+        synonyms = Arrays.copyOf(synonyms, size * 2);
+      }
+      nodes[size] = n;
+      levels[size] = level;
+      synonyms[size] = synonym;
+      size++;
+    }
+  }
+
+  private void printLine(Appendable out, int level, boolean synonym) throws IOException {
     out.append(indent(level * 2));
     if (synonym) {
       if (homotypic) {
@@ -106,12 +225,5 @@ abstract class TreeNode<T extends TreeNode<T>> {
       out.append("}");
     }
     out.append("\n");
-    // recursive
-    for (T n : synonyms) {
-      n.print(out, level + 1, true);
-    }
-    for (T n : children) {
-      n.print(out, level + 1, false);
-    }
   }
 }
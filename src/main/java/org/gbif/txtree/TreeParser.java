@@ -0,0 +1,197 @@
+package org.gbif.txtree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Parses tree lines one by one and reports the resulting nodes to a {@link TreeHandler}.
+ * Only the current parent path is kept.
+ */
+class TreeParser<T extends TreeNode<T>> {
+  private final BiFunction<Long, LineLexer, T> builder;
+  private final TreeHandler<T> handler;
+  private final Consumer<TreeLine> listener;
+  private final LineLexer lexer = new LineLexer();
+  private final ArrayList<T> parents = new ArrayList<>();
+  private final List<T> parentsView = Collections.unmodifiableList(parents);
+  private long row;
+  private ParseMetrics metrics;
+
+  TreeParser(BiFunction<Long, LineLexer, T> builder, TreeHandler<T> handler, Consumer<TreeLine> listener) {
+    this(builder, handler, listener, 0);
+  }
+
+  /**
+   * @param row the line number before the first line to be parsed
+   */
+  TreeParser(BiFunction<Long, LineLexer, T> builder, TreeHandler<T> handler, Consumer<TreeLine> listener, long row) {
+    this.builder = builder;
+    this.handler = handler;
+    this.listener = listener;
+    this.row = row;
+  }
+
+  /**
+   * Records metrics for all following lines.
+   */
+  void metrics(ParseMetrics metrics) {
+    this.metrics = metrics;
+    lexer.metrics = metrics;
+  }
+
+  /**
+   * Keeps the raw infos of all following nodes and only decodes them on first access.
+   */
+  void lazyInfos(boolean lazy) {
+    lexer.lazyInfos = lazy;
+  }
+
+  void parse(Reader reader) throws IOException {
+    parse(new BufferedReader(reader)::readLine);
+  }
+
+  void parse(LineSource lines) throws IOException {
+    handler.startTree();
+    long start = metrics == null ? 0 : System.nanoTime();
+    CharSequence line = lines.next();
+    while (line != null) {
+      if (metrics != null) {
+        metrics.line(line, System.nanoTime() - start);
+      }
+      line(line);
+      if (metrics != null) {
+        start = System.nanoTime();
+      }
+      line = lines.next();
+    }
+    end();
+  }
+
+  /**
+   * Parses the given lines, starting and ending the tree.
+   */
+  void parse(List<String> lines) {
+    handler.startTree();
+    for (String line : lines) {
+      if (metrics != null) {
+        metrics.line(line, 0);
+      }
+      line(line);
+    }
+    end();
+  }
+
+  /**
+   * Closes all open nodes and ends the tree.
+   */
+  void end() {
+    close(0);
+    handler.endTree();
+  }
+
+  /**
+   * Processes the next line.
+   * @throws IllegalArgumentException if the line was badly formatted
+   */
+  void line(CharSequence line) {
+    long start = metrics == null ? 0 : System.nanoTime();
+    long nested = metrics == null ? 0 : metrics.nestedNanos();
+    int level = lex(line);
+    if (level >= 0) {
+      T n = builder.apply(row, lexer);
+      if (metrics != null) {
+        // names and infos are timed separately
+        metrics.time(ParseMetrics.Phase.LEX, System.nanoTime() - start - (metrics.nestedNanos() - nested));
+      }
+      add(n, level, lexer.synonym(), row, line);
+    }
+  }
+
+  /**
+   * Lexes the next line without building a node.
+   * The line parts are available from {@link #lexer()} until the next line is lexed.
+   *
+   * @return the level of the line or -1 for blank lines
+   * @throws IllegalArgumentException if the line was badly formatted
+   */
+  int lex(CharSequence line) {
+    row++;
+    if (Tree.isBlank(line)) {
+      return -1;
+    }
+    if (lexer.lex(line)) {
+      int level = lexer.indent();
+      if (level % 2 != 0) {
+        throw new IllegalArgumentException("Tree is not indented properly on line " + row + ". Use 2 spaces only: " + line);
+      }
+      return level / 2;
+    }
+    throw new IllegalArgumentException("Failed to parse Tree on line " + row + ": " + line);
+  }
+
+  /**
+   * Continues below existing parent nodes, e.g. to re-parse a part of a tree.
+   * @param path the current classification with the direct parent being the last entry
+   */
+  void resume(List<T> path) {
+    parents.clear();
+    parents.addAll(path);
+  }
+
+  LineLexer lexer() {
+    return lexer;
+  }
+
+  /**
+   * @return the line number of the last lexed line
+   */
+  long row() {
+    return row;
+  }
+
+  /**
+   * Adds a new node to the current parent path and reports it to the handler.
+   * @throws IllegalArgumentException if the node has no parent on the given level
+   */
+  void add(T n, int level, boolean synonym, long row, CharSequence line) {
+    long start = metrics == null ? 0 : System.nanoTime();
+    if (level == 0) {
+      close(0);
+      handler.startNode(n, parentsView);
+
+    } else {
+      // remove latest parents until we are at the right level
+      close(level);
+      if (parents.size() < level) {
+        throw new IllegalArgumentException("Tree is not properly indented on line " + row + ". Use 2 spaces for children: " + line);
+      }
+      if (synonym) {
+        handler.synonym(n, parentsView);
+      } else {
+        handler.startNode(n, parentsView);
+      }
+    }
+    parents.add(n);
+    if (metrics != null) {
+      metrics.time(ParseMetrics.Phase.ASSEMBLY, System.nanoTime() - start);
+      metrics.node(n, synonym);
+    }
+
+    if (listener != null) {
+      TreeLine tl = new TreeLine(row, level, line.toString().trim(), n.infos);
+      listener.accept(tl);
+    }
+  }
+
+  private void close(int level) {
+    while (parents.size() > level) {
+      handler.endNode(parents.remove(parents.size() - 1));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.gbif.txtree;
+
+/**
+ * A validation rule run by {@link TreeRules}.
+ * All nodes are passed to a rule in the order of their lines, synonyms before children,
+ * and only the current parent path is known, so rules also work when streaming trees too large for memory.
+ *
+ * A new instance is created for every part of the tree that is checked in parallel,
+ * so instances are only used by a single thread and may keep state.
+ * Rules that look across subtrees, e.g. for duplicates, collect their state per instance,
+ * combine it in {@link #merge(TreeRule)} and report it in {@link #finish(TreeRules.Context)}.
+ */
+public interface TreeRule<T extends TreeNode<T>> {
+
+  /**
+   * @return the name used for reported issues
+   */
+  default String name() {
+    return getClass().getSimpleName();
+  }
+
+  /**
+   * Checks a single accepted node or synonym.
+   * @param ctx the current parent path, only valid during the callback
+   */
+  void check(T node, TreeRules.Context<T> ctx);
+
+  /**
+   * Called once all nested lines of a node have been checked.
+   */
+  default void end(T node, TreeRules.Context<T> ctx) {
+  }
+
+  /**
+   * Adds the state of another instance of the same rule which checked the following part of the tree.
+   */
+  default void merge(TreeRule<T> other) {
+  }
+
+  /**
+   * Called once after the entire tree has been checked and all instances have been merged into this one.
+   */
+  default void finish(TreeRules.Context<T> ctx) {
+  }
+}
@@ -0,0 +1,426 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.Rank;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs a set of {@link TreeRule}s over a tree in a single traversal and collects the issues found,
+ * located by the line numbers kept in {@link TreeNode#getId()}.
+ *
+ * Trees in memory are checked in parallel, splitting the tree by its root nodes.
+ * Trees too large for memory can be streamed through the {@link #handler()},
+ * e.g. with {@link Tree#streamSimple(Path, TreeHandler)}.
+ * Both ways report the same issues.
+ */
+public class TreeRules<T extends TreeNode<T>> {
+  private final List<Supplier<? extends TreeRule<T>>> rules = new ArrayList<>();
+
+  /**
+   * @return rules checking the rank order, synonyms with children, multiple basionyms,
+   * duplicate accepted names and the placement of provisional names
+   */
+  public static <T extends TreeNode<T>> TreeRules<T> defaults() {
+    return new TreeRules<T>()
+        .add(RankOrder::new)
+        .add(SynonymChildren::new)
+        .add(SingleBasionym::new)
+        .add(DuplicateAcceptedNames::new)
+        .add(ProvisionalParent::new);
+  }
+
+  /**
+   * Streams through the given tree file checking the default rules.
+   * Memory is bounded by the depth of the tree and the accepted names kept to detect duplicates.
+   *
+   * @throws IllegalArgumentException if the file was badly formatted
+   */
+  public static List<TreeIssue> checkSimple(Path path) throws IOException {
+    Handler<SimpleTreeNode> handler = TreeRules.<SimpleTreeNode>defaults().handler();
+    Tree.streamSimple(path, handler);
+    return handler.issues();
+  }
+
+  /**
+   * Registers a rule.
+   * @param rule creates a new rule instance for every part of the tree checked in parallel
+   */
+  public TreeRules<T> add(Supplier<? extends TreeRule<T>> rule) {
+    rules.add(rule);
+    return this;
+  }
+
+  /**
+   * Checks all rules in parallel over the subtrees of the root nodes.
+   * @return all issues ordered by line
+   */
+  public List<TreeIssue> check(Tree<T> tree) {
+    List<T> roots = new ArrayList<>(tree.getRoot());
+    // several tasks per thread to balance subtrees of very different sizes
+    int chunk = Math.max(1, roots.size() / (ForkJoinPool.getCommonPoolParallelism() * 4));
+    int chunks = (roots.size() + chunk - 1) / chunk;
+    List<Handler<T>> parts = IntStream.range(0, chunks).parallel()
+        .mapToObj(c -> {
+          Handler<T> h = handler();
+          for (int i = c * chunk; i < Math.min(roots.size(), (c + 1) * chunk); i++) {
+            h.walk(roots.get(i));
+          }
+          return h;
+        })
+        .collect(Collectors.toList());
+
+    Handler<T> result = parts.isEmpty() ? handler() : parts.get(0);
+    for (int i = 1; i < parts.size(); i++) {
+      result.merge(parts.get(i));
+    }
+    result.endTree();
+    return result.issues();
+  }
+
+  /**
+   * @return a new handler checking all rules for the streamed nodes, single threaded
+   */
+  public Handler<T> handler() {
+    List<TreeRule<T>> instances = new ArrayList<>(rules.size());
+    for (Supplier<? extends TreeRule<T>> r : rules) {
+      instances.add(r.get());
+    }
+    return new Handler<>(instances);
+  }
+
+  /**
+   * The position of the checked node in the tree, also used to report issues.
+   */
+  public static class Context<T extends TreeNode<T>> {
+    private final List<TreeIssue> issues = new ArrayList<>();
+    private boolean[] synonyms = new boolean[64];
+    private List<T> parents = Collections.emptyList();
+    private TreeRule<T> rule;
+
+    /**
+     * @return the current classification with the direct parent or, for synonyms, the accepted node being the last entry
+     */
+    public List<T> parents() {
+      return parents;
+    }
+
+    /**
+     * @return the direct parent or null for root nodes
+     */
+    public T parent() {
+      return parents.isEmpty() ? null : parents.get(parents.size() - 1);
+    }
+
+    /**
+     * @return true if the checked node is a synonym
+     */
+    public boolean isSynonym() {
+      return synonyms[parents.size()];
+    }
+
+    /**
+     * @return true if the parent at the given index of {@link #parents()} is a synonym
+     */
+    public boolean isSynonym(int parent) {
+      return synonyms[parent];
+    }
+
+    /**
+     * Reports an issue for the given node.
+     */
+    public void issue(TreeNode<?> node, String message) {
+      issues.add(new TreeIssue(node.getId(), rule.name(), message));
+    }
+
+    private void enter(List<T> parents, boolean synonym) {
+      this.parents = parents;
+      if (parents.size() == synonyms.length) {
+        synonyms = Arrays.copyOf(synonyms, synonyms.length * 2);
+      }
+      synonyms[parents.size()] = synonym;
+    }
+  }
+
+  /**
+   * Checks the rules for all nodes passed to it.
+   * Once the tree has ended the issues are available from {@link #issues()}.
+   */
+  public static class Handler<T extends TreeNode<T>> implements TreeHandler<T> {
+    private final List<TreeRule<T>> rules;
+    private final Context<T> ctx = new Context<>();
+
+    private Handler(List<TreeRule<T>> rules) {
+      this.rules = rules;
+    }
+
+    @Override
+    public void startNode(T node, List<T> parents) {
+      check(node, parents, false);
+    }
+
+    @Override
+    public void synonym(T synonym, List<T> parents) {
+      check(synonym, parents, true);
+    }
+
+    private void check(T node, List<T> parents, boolean synonym) {
+      ctx.enter(parents, synonym);
+      for (TreeRule<T> r : rules) {
+        ctx.rule = r;
+        r.check(node, ctx);
+      }
+    }
+
+    @Override
+    public void endNode(T node) {
+      for (TreeRule<T> r : rules) {
+        ctx.rule = r;
+        r.end(node, ctx);
+      }
+    }
+
+    @Override
+    public void endTree() {
+      ctx.parents = Collections.emptyList();
+      for (TreeRule<T> r : rules) {
+        ctx.rule = r;
+        r.finish(ctx);
+      }
+    }
+
+    /**
+     * @return all issues ordered by line
+     */
+    public List<TreeIssue> issues() {
+      List<TreeIssue> sorted = new ArrayList<>(ctx.issues);
+      sorted.sort(Comparator.comparingLong(i -> i.line));
+      return sorted;
+    }
+
+    /**
+     * Passes a subtree to the rules in the same order as the parser would, iteratively to allow for any depth.
+     */
+    private void walk(T root) {
+      ArrayList<T> path = new ArrayList<>();
+      List<T> view = Collections.unmodifiableList(path);
+      ArrayList<Iterator<T>> synonyms = new ArrayList<>();
+      ArrayList<Iterator<T>> children = new ArrayList<>();
+      startNode(root, view);
+      path.add(root);
+      synonyms.add(root.synonyms.iterator());
+      children.add(root.children.iterator());
+      while (!path.isEmpty()) {
+        int top = path.size() - 1;
+        T next;
+        if (synonyms.get(top).hasNext()) {
+          next = synonyms.get(top).next();
+          synonym(next, view);
+        } else if (children.get(top).hasNext()) {
+          next = children.get(top).next();
+          startNode(next, view);
+        } else {
+          synonyms.remove(top);
+          children.remove(top);
+          endNode(path.remove(top));
+          continue;
+        }
+        path.add(next);
+        synonyms.add(next.synonyms.iterator());
+        children.add(next.children.iterator());
+      }
+    }
+
+    /**
+     * Adds the rule states and issues of a handler which checked the following part of the tree.
+     */
+    private void merge(Handler<T> other) {
+      for (int i = 0; i < rules.size(); i++) {
+        rules.get(i).merge(other.rules.get(i));
+      }
+      ctx.issues.addAll(other.ctx.issues);
+    }
+  }
+
+  /**
+   * Accepted ranks must be lower than the closest ranked accepted parent.
+   * Uncomparable ranks like unranked or infraspecific names are ignored.
+   */
+  static class RankOrder<T extends TreeNode<T>> implements TreeRule<T> {
+    private final Map<String, Rank> ranks = new HashMap<>();
+
+    @Override
+    public void check(T node, Context<T> ctx) {
+      Rank rank;
+      if (ctx.isSynonym() || (rank = rank(node)) == null) {
+        return;
+      }
+      List<T> parents = ctx.parents();
+      for (int i = parents.size() - 1; i >= 0; i--) {
+        T p = parents.get(i);
+        Rank prank;
+        if (!ctx.isSynonym(i) && (prank = rank(p)) != null) {
+          if (!prank.higherThan(rank)) {
+            ctx.issue(node, "Rank " + node.rank + " of " + node.name + " is not below the rank " + p.rank + " of its parent " + p.name);
+          }
+          return;
+        }
+      }
+    }
+
+    private Rank rank(T node) {
+      return node.rank == null ? null : ranks.computeIfAbsent(node.rank, RankOrder::comparableRank);
+    }
+
+    private static Rank comparableRank(String rank) {
+      try {
+        Rank r = Tree.parseRank(rank);
+        return r == Rank.UNRANKED || r == Rank.OTHER || r.name().endsWith("_NAME") ? null : r;
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Synonyms must not have any children.
+   */
+  static class SynonymChildren<T extends TreeNode<T>> implements TreeRule<T> {
+    @Override
+    public void check(T node, Context<T> ctx) {
+      int p = ctx.parents().size() - 1;
+      if (!ctx.isSynonym() && p >= 0 && ctx.isSynonym(p)) {
+        ctx.issue(node, "Synonym " + ctx.parent().name + " must not have the child " + node.name);
+      }
+    }
+  }
+
+  /**
+   * The synonyms of an accepted name can only contain a single basionym.
+   */
+  static class SingleBasionym<T extends TreeNode<T>> implements TreeRule<T> {
+    private final Map<T, T> basionyms = new IdentityHashMap<>();
+
+    @Override
+    public void check(T node, Context<T> ctx) {
+      if (ctx.isSynonym() && node.basionym) {
+        T acc = ctx.parent();
+        T first = basionyms.putIfAbsent(acc, node);
+        if (first != null) {
+          ctx.issue(node, "Accepted name " + acc.name + " already has the basionym " + first.name + " on line " + first.getId());
+        }
+      }
+    }
+
+    @Override
+    public void end(T node, Context<T> ctx) {
+      basionyms.remove(node);
+    }
+  }
+
+  /**
+   * Accepted names with the same rank must not exist more than once.
+   * Provisional names are considered to be accepted.
+   */
+  static class DuplicateAcceptedNames<T extends TreeNode<T>> implements TreeRule<T> {
+    // name and rank to the first line
+    private Map<Key, Long> names = new HashMap<>();
+    private final List<Map.Entry<Key, Long>> duplicates = new ArrayList<>();
+
+    @Override
+    public void check(T node, Context<T> ctx) {
+      if (!ctx.isSynonym()) {
+        Key key = new Key(node.name, node.rank);
+        if (names.putIfAbsent(key, node.getId()) != null) {
+          duplicates.add(new AbstractMap.SimpleEntry<>(key, node.getId()));
+        }
+      }
+    }
+
+    @Override
+    public void merge(TreeRule<T> other) {
+      DuplicateAcceptedNames<T> o = (DuplicateAcceptedNames<T>) other;
+      duplicates.addAll(o.duplicates);
+      // add the smaller map to the larger one, keeping the lowest line as the first
+      Map<Key, Long> smaller = o.names;
+      if (smaller.size() > names.size()) {
+        smaller = names;
+        names = o.names;
+      }
+      for (Map.Entry<Key, Long> e : smaller.entrySet()) {
+        Long first = names.putIfAbsent(e.getKey(), e.getValue());
+        if (first != null) {
+          if (first > e.getValue()) {
+            names.put(e.getKey(), e.getValue());
+            duplicates.add(new AbstractMap.SimpleEntry<>(e.getKey(), first));
+          } else {
+            duplicates.add(e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void finish(Context<T> ctx) {
+      for (Map.Entry<Key, Long> d : duplicates) {
+        ctx.issues.add(new TreeIssue(d.getValue(), name(), "Duplicate accepted name " + d.getKey() + ", first on line " + names.get(d.getKey())));
+      }
+    }
+
+    private static class Key {
+      private final String name;
+      private final String rank;
+
+      Key(String name, String rank) {
+        this.name = name;
+        this.rank = rank;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Key)) return false;
+        Key key = (Key) o;
+        return name.equals(key.name) && Objects.equals(rank, key.rank);
+      }
+
+      @Override
+      public int hashCode() {
+        return 31 * name.hashCode() + Objects.hashCode(rank);
+      }
+
+      @Override
+      public String toString() {
+        return rank == null ? name : name + " [" + rank + "]";
+      }
+    }
+  }
+
+  /**
+   * Provisional names must be placed under a properly accepted name.
+   */
+  static class ProvisionalParent<T extends TreeNode<T>> implements TreeRule<T> {
+    @Override
+    public void check(T node, Context<T> ctx) {
+      int p = ctx.parents().size() - 1;
+      if (node.provisional && !ctx.isSynonym() && p >= 0 && (ctx.isSynonym(p) || ctx.parent().provisional)) {
+        ctx.issue(node, "Provisional name " + node.name + " is not placed under an accepted parent");
+      }
+    }
+  }
+}
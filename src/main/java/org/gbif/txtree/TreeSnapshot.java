@@ -0,0 +1,835 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.ParsedName;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes trees in a binary snapshot format that loads much faster than parsing the text tree,
+ * especially for parsed trees as no names need to be parsed again.
+ *
+ * A snapshot starts with a magic header, the format version and the kind of nodes.
+ * All nodes follow depth first, each with its synonyms and children counts followed by its synonyms and children.
+ * Nodes are written and read with an explicit stack, so trees of any depth are supported.
+ * Ranks, enum values and info keys are written once and then referred to by their ordinal in the snapshot.
+ * The snapshot ends with the number of written nodes and a CRC32 checksum of all previous bytes.
+ *
+ * Parsed names keep all their bean properties that differ from a new instance, found by their getters and setters,
+ * so a loaded name equals the parsed one, nested authorships too. The class and property names of a bean are
+ * written once with its first instance, further instances refer to them by ordinal.
+ * Collections without a setter are restored by adding to the collection returned by the getter.
+ * Writing fails for property values other than strings, numbers, booleans, enums, collections and name parser beans.
+ *
+ * Snapshots are read ahead in large blocks, so the input stream is consumed beyond the end of the snapshot.
+ */
+class TreeSnapshot {
+  static final int VERSION = 2;
+  private static final byte[] MAGIC = {'T', 'X', 'T', 'R', 'E', 'E'};
+  private static final byte SIMPLE = 1;
+  private static final byte PARSED = 2;
+  // node flags
+  private static final int EXTINCT = 1;
+  private static final int BASIONYM = 2;
+  private static final int HOMOTYPIC = 4;
+  private static final int PROVISIONAL = 8;
+  private static final int INFOS = 16;
+  private static final int COMMENT = 32;
+  private static final int PARSED_NAME = 64;
+  // property value types
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int TRUE = 2;
+  private static final int FALSE = 3;
+  private static final int INT = 4;
+  private static final int LONG = 5;
+  private static final int ENUM = 6;
+  private static final int LIST = 7;
+  private static final int SET = 8;
+  private static final int MAP = 9;
+  private static final int BEAN = 10;
+  // only name parser classes are written as beans or enums and loaded again
+  private static final String BEAN_PACKAGE = "org.gbif.nameparser.";
+  private static final ClassValue<Bean> BEANS = new ClassValue<>() {
+    @Override
+    protected Bean computeValue(Class<?> type) {
+      return new Bean(type);
+    }
+  };
+
+  private TreeSnapshot() {
+  }
+
+  /**
+   * Writes a snapshot of the given tree. Trees with other than parsed nodes are written as simple trees.
+   * The stream remains open and must be closed by the caller.
+   */
+  static <T extends TreeNode<T>> void write(Tree<T> tree, OutputStream out) throws IOException {
+    boolean parsed = !tree.getRoot().isEmpty() && tree.getRoot().get(0) instanceof ParsedTreeNode;
+    CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+    Out o = new Out(checked, parsed);
+    o.write(MAGIC);
+    o.writeFixed(VERSION, 4);
+    o.writeByte(parsed ? PARSED : SIMPLE);
+    o.writeVarLong(tree.getRoot().size());
+    // the size of the tree is not trusted, it is not maintained for nodes added by hand
+    long nodes = o.writeNodes(tree.getRoot());
+    o.writeFixed(nodes, 8);
+    o.flush();
+    new DataOutputStream(out).writeLong(checked.getChecksum().getValue());
+    out.flush();
+  }
+
+  /**
+   * A property of a bean with its getter and either a setter or a mutable collection returned by the getter.
+   */
+  private static class Property {
+    final String name;
+    final Method getter;
+    final Method setter;
+    final Object defaultValue;
+
+    Property(String name, Method getter, Method setter, Object defaultValue) {
+      this.name = name;
+      this.getter = getter;
+      this.setter = setter;
+      this.defaultValue = defaultValue;
+    }
+  }
+
+  /**
+   * All properties of a bean class ordered by name and the values of a new instance.
+   */
+  private static class Bean {
+    final Constructor<?> constructor;
+    final List<Property> properties = new ArrayList<>();
+    final Map<String, Property> byName = new HashMap<>();
+
+    Bean(Class<?> type) {
+      try {
+        constructor = type.getConstructor();
+        Object defaults = constructor.newInstance();
+        Map<String, Method> setters = new HashMap<>();
+        for (Method m : type.getMethods()) {
+          if (m.getName().startsWith("set") && m.getParameterCount() == 1 && !Modifier.isStatic(m.getModifiers())) {
+            setters.put(m.getName().substring(3) + ":" + m.getParameterTypes()[0].getName(), m);
+          }
+        }
+        for (Method m : type.getMethods()) {
+          String name = getterProperty(m);
+          if (name != null) {
+            Method setter = setters.get(name + ":" + m.getReturnType().getName());
+            Object value = m.invoke(defaults);
+            // collections without a setter are only kept if the getter returns the backing instance
+            boolean mutable = setter == null && value != null && (value instanceof Collection || value instanceof Map)
+                && value == m.invoke(defaults);
+            if (setter != null || mutable) {
+              Property p = new Property(name, m, setter, value);
+              properties.add(p);
+              byName.put(name, p);
+            }
+          }
+        }
+        properties.sort(Comparator.comparing(p -> p.name));
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Cannot snapshot " + type.getName(), e);
+      }
+    }
+
+    private static String getterProperty(Method m) {
+      if (m.getParameterCount() != 0 || Modifier.isStatic(m.getModifiers()) || m.getDeclaringClass() == Object.class) {
+        return null;
+      }
+      if (m.getName().startsWith("get") && m.getName().length() > 3 && m.getReturnType() != void.class) {
+        return m.getName().substring(3);
+      }
+      if (m.getName().startsWith("is") && m.getName().length() > 2 && m.getReturnType() == boolean.class) {
+        return m.getName().substring(2);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Reads a snapshot into a simple tree. Snapshots of parsed trees can be read too, dropping their parsed names.
+   * @throws IOException if the snapshot could not be read, has an unknown version or a wrong checksum
+   */
+  static Tree<SimpleTreeNode> readSimple(InputStream in) throws IOException {
+    return read(in, false, Tree::simpleNode);
+  }
+
+  /**
+   * Reads a snapshot of a parsed tree.
+   * @throws IOException if the snapshot could not be read, has an unknown version or a wrong checksum
+   * @throws IllegalArgumentException if the snapshot contains a simple tree
+   */
+  static Tree<ParsedTreeNode> readParsed(InputStream in) throws IOException {
+    return read(in, true, Tree::parsedNode);
+  }
+
+  private static <T extends TreeNode<T>> Tree<T> read(InputStream in, boolean parsedNodes,
+                                                      BiFunction<Long, LineLexer, T> builder) throws IOException {
+    Tree<T> tree = new Tree<>(builder);
+    In<T> i = new In<>(in, tree.assembler(), parsedNodes);
+    byte[] magic = new byte[MAGIC.length];
+    i.readFully(magic, magic.length);
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IOException("Not a text tree snapshot");
+    }
+    int version = (int) i.readFixed(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported text tree snapshot version " + version);
+    }
+    int kind = i.readUnsignedByte();
+    if (kind != SIMPLE && kind != PARSED) {
+      throw new IOException("Unknown text tree snapshot kind " + kind);
+    }
+    if (parsedNodes && kind != PARSED) {
+      throw new IllegalArgumentException("The snapshot contains a simple tree without parsed names");
+    }
+    i.hasParsedNames = kind == PARSED;
+
+    i.readNodes(i.readVarLong());
+    long size = i.readFixed(8);
+    long crc = i.checksum();
+    if (i.readFixed(8) != crc) {
+      throw new IOException("Text tree snapshot checksum mismatch");
+    }
+    if (tree.size() != size) {
+      throw new IOException("Text tree snapshot contains " + tree.size() + " instead of " + size + " nodes");
+    }
+    return tree;
+  }
+
+  /**
+   * Writes a snapshot through its own unsynchronized buffer.
+   */
+  private static class Out {
+    private static final Object UNCHANGED = new Object();
+    final OutputStream out;
+    final boolean parsed;
+    final Map<String, Integer> symbols = new HashMap<>();
+    final Map<Bean, Integer> beans = new HashMap<>();
+    final byte[] buf = new byte[65536];
+    int pos;
+
+    Out(OutputStream out, boolean parsed) {
+      this.out = out;
+      this.parsed = parsed;
+    }
+
+    /**
+     * Writes all nodes with their nested synonyms and children depth first.
+     * @return the number of written nodes
+     */
+    long writeNodes(List<? extends TreeNode<?>> roots) throws IOException {
+      long count = 0;
+      Deque<TreeNode<?>> stack = new ArrayDeque<>();
+      pushReversed(stack, roots);
+      while (!stack.isEmpty()) {
+        TreeNode<?> n = stack.pop();
+        writeNode(n);
+        count++;
+        // synonyms are written before the children, so they are pushed last
+        pushReversed(stack, n.children);
+        pushReversed(stack, n.synonyms);
+      }
+      return count;
+    }
+
+    private static void pushReversed(Deque<TreeNode<?>> stack, List<? extends TreeNode<?>> nodes) {
+      for (ListIterator<? extends TreeNode<?>> it = nodes.listIterator(nodes.size()); it.hasPrevious(); ) {
+        stack.push(it.previous());
+      }
+    }
+
+    void writeNode(TreeNode<?> n) throws IOException {
+      boolean hasInfos = n.infos != null && !n.infos.isEmpty();
+      ParsedName pn = parsed ? ((ParsedTreeNode) n).parsedName : null;
+      int flags = (n.extinct ? EXTINCT : 0)
+          | (n.basionym ? BASIONYM : 0)
+          | (n.homotypic ? HOMOTYPIC : 0)
+          | (n.provisional ? PROVISIONAL : 0)
+          | (hasInfos ? INFOS : 0)
+          | (n.comment != null ? COMMENT : 0)
+          | (pn != null ? PARSED_NAME : 0);
+      writeVarLong(n.getId());
+      writeByte(flags);
+      writeString(n.name);
+      writeSymbol(n.rank);
+      if (hasInfos) {
+        writeVarLong(n.infos.size());
+        for (Map.Entry<String, String[]> e : n.infos.entrySet()) {
+          writeSymbol(e.getKey());
+          writeVarLong(e.getValue().length);
+          for (String v : e.getValue()) {
+            writeString(v);
+          }
+        }
+      }
+      if (n.comment != null) {
+        writeString(n.comment);
+      }
+      if (pn != null) {
+        writeBean(pn);
+      }
+      writeVarLong(n.synonyms.size());
+      writeVarLong(n.children.size());
+    }
+
+    /**
+     * Writes the class of a bean followed by all its properties which differ from a new instance.
+     * The class and its property names are only written for the first bean of a class.
+     */
+    void writeBean(Object bean) throws IOException {
+      Bean b = BEANS.get(bean.getClass());
+      Integer ordinal = beans.get(b);
+      if (ordinal == null) {
+        beans.put(b, beans.size());
+        writeVarLong(beans.size() - 1);
+        writeString(bean.getClass().getName());
+        writeVarLong(b.properties.size());
+        for (Property p : b.properties) {
+          writeString(p.name);
+        }
+      } else {
+        writeVarLong(ordinal);
+      }
+      Object[] values = new Object[b.properties.size()];
+      int changed = 0;
+      for (int i = 0; i < values.length; i++) {
+        Property p = b.properties.get(i);
+        values[i] = get(p, bean);
+        if (!Objects.equals(values[i], p.defaultValue)) {
+          changed++;
+        } else {
+          values[i] = UNCHANGED;
+        }
+      }
+      writeVarLong(changed);
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != UNCHANGED) {
+          // the property ordinal and the value type share a single varint
+          int type = type(values[i], b.properties.get(i).name);
+          writeVarLong((long) i << 4 | type);
+          writeContent(type, values[i], b.properties.get(i).name);
+        }
+      }
+    }
+
+    private static Object get(Property p, Object bean) throws IOException {
+      try {
+        return p.getter.invoke(bean);
+      } catch (ReflectiveOperationException e) {
+        throw new IOException("Cannot read property " + p.name + " of " + bean.getClass().getSimpleName(), e);
+      }
+    }
+
+    void writeValue(Object value, String property) throws IOException {
+      int type = type(value, property);
+      writeByte(type);
+      writeContent(type, value, property);
+    }
+
+    private static int type(Object value, String property) throws IOException {
+      if (value == null) {
+        return NULL;
+      } else if (value instanceof String) {
+        return STRING;
+      } else if (value instanceof Boolean) {
+        return (Boolean) value ? TRUE : FALSE;
+      } else if (value instanceof Integer) {
+        return INT;
+      } else if (value instanceof Long) {
+        return LONG;
+      } else if (value instanceof Enum && value.getClass().getName().startsWith(BEAN_PACKAGE)) {
+        return ENUM;
+      } else if (value instanceof Collection) {
+        return value instanceof Set ? SET : LIST;
+      } else if (value instanceof Map) {
+        return MAP;
+      } else if (value.getClass().getName().startsWith(BEAN_PACKAGE)) {
+        return BEAN;
+      }
+      throw new IOException("Cannot snapshot parsed name property " + property + " of type " + value.getClass().getName());
+    }
+
+    private void writeContent(int type, Object value, String property) throws IOException {
+      switch (type) {
+        case STRING:
+          writeString((String) value);
+          break;
+        case INT:
+          writeVarLong(zigzag((Integer) value));
+          break;
+        case LONG:
+          writeVarLong(zigzag((Long) value));
+          break;
+        case ENUM:
+          writeSymbol(((Enum<?>) value).getDeclaringClass().getName());
+          writeSymbol(((Enum<?>) value).name());
+          break;
+        case LIST:
+        case SET:
+          writeVarLong(((Collection<?>) value).size());
+          for (Object v : (Collection<?>) value) {
+            writeValue(v, property);
+          }
+          break;
+        case MAP:
+          writeVarLong(((Map<?, ?>) value).size());
+          for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+            writeValue(e.getKey(), property);
+            writeValue(e.getValue(), property);
+          }
+          break;
+        case BEAN:
+          writeBean(value);
+          break;
+        default:
+          // null and booleans have no content
+      }
+    }
+
+    private static long zigzag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Writes a frequently repeated string as the ordinal of its first occurrence.
+     * Zero is null, a new symbol is written as the next unused ordinal followed by the string.
+     */
+    void writeSymbol(String symbol) throws IOException {
+      if (symbol == null) {
+        writeVarLong(0);
+        return;
+      }
+      Integer idx = symbols.get(symbol);
+      if (idx == null) {
+        idx = symbols.size() + 1;
+        symbols.put(symbol, idx);
+        writeVarLong(idx);
+        writeString(symbol);
+      } else {
+        writeVarLong(idx);
+      }
+    }
+
+    /**
+     * Writes the UTF8 bytes of a string prefixed by their length plus one. Zero is null.
+     */
+    void writeString(String s) throws IOException {
+      if (s == null) {
+        writeVarLong(0);
+      } else {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        write(bytes);
+      }
+    }
+
+    void writeVarLong(long value) throws IOException {
+      if (buf.length - pos < 10) {
+        flush();
+      }
+      while ((value & ~0x7FL) != 0) {
+        buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buf[pos++] = (byte) value;
+    }
+
+    void writeFixed(long value, int bytes) throws IOException {
+      for (int i = bytes - 1; i >= 0; i--) {
+        writeByte((int) (value >>> (i * 8)));
+      }
+    }
+
+    void writeByte(int b) throws IOException {
+      if (pos == buf.length) {
+        flush();
+      }
+      buf[pos++] = (byte) b;
+    }
+
+    void write(byte[] bytes) throws IOException {
+      if (bytes.length > buf.length - pos) {
+        flush();
+        if (bytes.length > buf.length) {
+          out.write(bytes);
+          return;
+        }
+      }
+      System.arraycopy(bytes, 0, buf, pos, bytes.length);
+      pos += bytes.length;
+    }
+
+    void flush() throws IOException {
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+  }
+
+  /**
+   * Reads a snapshot through its own buffer, so the checksum is computed over entire buffers
+   * and the final checksum itself is excluded from it.
+   */
+  private static class In<T extends TreeNode<T>> {
+    final InputStream in;
+    final TreeHandler<T> handler;
+    final boolean parsedNodes;
+    boolean hasParsedNames;
+    final List<String> symbols = new ArrayList<>();
+    final Map<String, Class<?>> classes = new HashMap<>();
+    // bean classes with the properties in the order written, null for properties unknown to this version
+    final List<Bean> beans = new ArrayList<>();
+    final List<List<Property>> beanProperties = new ArrayList<>();
+    final ArrayList<T> parents = new ArrayList<>();
+    final List<T> parentsView = Collections.unmodifiableList(parents);
+    final CRC32 crc = new CRC32();
+    final byte[] buf = new byte[65536];
+    int pos;
+    int limit;
+    // start of the buffered bytes not yet added to the checksum
+    int crcPos;
+    byte[] chars = new byte[256];
+
+    In(InputStream in, TreeHandler<T> handler, boolean parsedNodes) {
+      this.in = in;
+      this.handler = handler;
+      this.parsedNodes = parsedNodes;
+    }
+
+    /**
+     * Reads the given number of root nodes with their nested synonyms and children depth first.
+     * Each open node keeps its remaining synonyms and children counts next to it in the parents stack.
+     */
+    void readNodes(long roots) throws IOException {
+      // remaining synonyms and children of each open node, indexed like the parents
+      long[] synonymsLeft = new long[16];
+      long[] childrenLeft = new long[16];
+      while (true) {
+        int depth = parents.size();
+        boolean synonym = false;
+        if (depth == 0) {
+          if (roots == 0) {
+            return;
+          }
+          roots--;
+        } else if (synonymsLeft[depth - 1] > 0) {
+          synonymsLeft[depth - 1]--;
+          synonym = true;
+        } else if (childrenLeft[depth - 1] > 0) {
+          childrenLeft[depth - 1]--;
+        } else {
+          handler.endNode(parents.remove(depth - 1));
+          continue;
+        }
+        T n = readNode(synonym);
+        if (depth == synonymsLeft.length) {
+          synonymsLeft = Arrays.copyOf(synonymsLeft, depth * 2);
+          childrenLeft = Arrays.copyOf(childrenLeft, depth * 2);
+        }
+        synonymsLeft[depth] = readVarLong();
+        childrenLeft[depth] = readVarLong();
+        parents.add(n);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    T readNode(boolean synonym) throws IOException {
+      long id = readVarLong();
+      int flags = readUnsignedByte();
+      String name = readString();
+      String rank = readSymbol();
+      Map<String, String[]> infos = Collections.emptyMap();
+      if ((flags & INFOS) != 0) {
+        int size = readSize();
+        infos = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+          String key = readSymbol();
+          // sizes are not trusted before the checksum is verified, so arrays only grow with the data read
+          int count = readSize();
+          List<String> vals = new ArrayList<>(Math.min(count, 16));
+          for (int j = 0; j < count; j++) {
+            vals.add(readString());
+          }
+          infos.put(key, vals.toArray(new String[0]));
+        }
+      }
+      String comment = (flags & COMMENT) != 0 ? readString() : null;
+      ParsedName pn = hasParsedNames && (flags & PARSED_NAME) != 0 ? readParsedName() : null;
+      boolean extinct = (flags & EXTINCT) != 0;
+      boolean basionym = (flags & BASIONYM) != 0;
+      boolean homotypic = (flags & HOMOTYPIC) != 0;
+      boolean provisional = (flags & PROVISIONAL) != 0;
+      T n = (T) (parsedNodes
+          ? new ParsedTreeNode(id, name, pn, extinct, basionym, homotypic, provisional, infos, comment)
+          : new SimpleTreeNode(id, name, rank, extinct, basionym, homotypic, provisional, infos, comment));
+
+      if (synonym) {
+        handler.synonym(n, parentsView);
+      } else {
+        handler.startNode(n, parentsView);
+      }
+      return n;
+    }
+
+    ParsedName readParsedName() throws IOException {
+      Object bean = readBean();
+      if (!(bean instanceof ParsedName)) {
+        throw new IOException("Corrupt text tree snapshot, " + bean.getClass().getName() + " is no parsed name");
+      }
+      return (ParsedName) bean;
+    }
+
+    /**
+     * Creates a new bean and restores all its written properties.
+     */
+    @SuppressWarnings("unchecked")
+    Object readBean() throws IOException {
+      int ordinal = readSize();
+      if (ordinal == beans.size()) {
+        Class<?> clazz = beanClass(readString());
+        Bean b = BEANS.get(clazz);
+        int count = readSize();
+        List<Property> props = new ArrayList<>(Math.min(count, 64));
+        for (int i = 0; i < count; i++) {
+          props.add(b.byName.get(readString()));
+        }
+        beans.add(b);
+        beanProperties.add(props);
+      } else if (ordinal > beans.size()) {
+        throw new IOException("Corrupt text tree snapshot, unknown bean class " + ordinal);
+      }
+      Bean b = beans.get(ordinal);
+      List<Property> props = beanProperties.get(ordinal);
+      Object bean;
+      try {
+        bean = b.constructor.newInstance();
+      } catch (ReflectiveOperationException | IllegalArgumentException e) {
+        throw new IOException("Cannot create " + b.constructor.getDeclaringClass().getName() + " from text tree snapshot", e);
+      }
+      int size = readSize();
+      for (int i = 0; i < size; i++) {
+        long tag = readVarLong();
+        long idx = tag >>> 4;
+        Property p = idx < props.size() ? props.get((int) idx) : null;
+        if (p == null) {
+          throw new IOException("Unknown property " + idx + " of " + bean.getClass().getSimpleName() + " in text tree snapshot");
+        }
+        Object value = readValue((int) tag & 0xF);
+        try {
+          if (p.setter != null) {
+            p.setter.invoke(bean, value);
+          } else if (value instanceof Collection) {
+            Collection<Object> col = (Collection<Object>) p.getter.invoke(bean);
+            col.clear();
+            col.addAll((Collection<?>) value);
+          } else if (value instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) p.getter.invoke(bean);
+            map.clear();
+            map.putAll((Map<?, ?>) value);
+          } else {
+            throw new IOException("Corrupt text tree snapshot, bad value for property " + p.name);
+          }
+        } catch (ReflectiveOperationException | IllegalArgumentException | ClassCastException | UnsupportedOperationException e) {
+          throw new IOException("Cannot restore property " + p.name + " of " + bean.getClass().getSimpleName(), e);
+        }
+      }
+      return bean;
+    }
+
+    Object readValue() throws IOException {
+      return readValue(readUnsignedByte());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Object readValue(int type) throws IOException {
+      switch (type) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case INT:
+          return (int) unzigzag(readVarLong());
+        case LONG:
+          return unzigzag(readVarLong());
+        case ENUM:
+          Class<?> enumClass = beanClass(readSymbol());
+          String constant = readSymbol();
+          if (!enumClass.isEnum()) {
+            throw new IOException("Corrupt text tree snapshot, " + enumClass.getName() + " is no enum");
+          }
+          try {
+            return Enum.valueOf((Class) enumClass, constant);
+          } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IOException("Unknown " + enumClass.getSimpleName() + " " + constant + " in text tree snapshot");
+          }
+        case LIST:
+        case SET:
+          int size = readSize();
+          Collection<Object> col = type == SET ? new LinkedHashSet<>() : new ArrayList<>(Math.min(size, 16));
+          for (int i = 0; i < size; i++) {
+            col.add(readValue());
+          }
+          return col;
+        case MAP:
+          int entries = readSize();
+          Map<Object, Object> map = new LinkedHashMap<>();
+          for (int i = 0; i < entries; i++) {
+            map.put(readValue(), readValue());
+          }
+          return map;
+        case BEAN:
+          return readBean();
+        default:
+          throw new IOException("Corrupt text tree snapshot, unknown value type " + type);
+      }
+    }
+
+    private Class<?> beanClass(String name) throws IOException {
+      Class<?> clazz = classes.get(name);
+      if (clazz == null) {
+        if (name == null || !name.startsWith(BEAN_PACKAGE)) {
+          throw new IOException("Corrupt text tree snapshot, unsupported class " + name);
+        }
+        try {
+          clazz = Class.forName(name, false, ParsedName.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Unknown class " + name + " in text tree snapshot");
+        }
+        classes.put(name, clazz);
+      }
+      return clazz;
+    }
+
+    private static long unzigzag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    String readSymbol() throws IOException {
+      int idx = readSize();
+      if (idx == 0) {
+        return null;
+      }
+      if (idx == symbols.size() + 1) {
+        symbols.add(readString());
+      } else if (idx > symbols.size()) {
+        throw new IOException("Corrupt text tree snapshot, unknown symbol " + idx);
+      }
+      return symbols.get(idx - 1);
+    }
+
+    String readString() throws IOException {
+      int len = readSize();
+      if (len == 0) {
+        return null;
+      }
+      len--;
+      if (len <= limit - pos) {
+        String str = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return str;
+      }
+      // the buffer only grows with the bytes actually read, so a corrupt length cannot allocate huge arrays
+      int off = 0;
+      while (off < len) {
+        if (pos == limit) {
+          fill();
+        }
+        int n = Math.min(len - off, limit - pos);
+        if (off + n > chars.length) {
+          chars = Arrays.copyOf(chars, (int) Math.min(len, Math.max(off + n, chars.length * 2L)));
+        }
+        System.arraycopy(buf, pos, chars, off, n);
+        pos += n;
+        off += n;
+      }
+      return new String(chars, 0, len, StandardCharsets.UTF_8);
+    }
+
+    int readSize() throws IOException {
+      long size = readVarLong();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Corrupt text tree snapshot, size " + size + " too large");
+      }
+      return (int) size;
+    }
+
+    long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readUnsignedByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Corrupt text tree snapshot, malformed number");
+    }
+
+    int readUnsignedByte() throws IOException {
+      if (pos == limit) {
+        fill();
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * Reads a big endian number of the given number of bytes.
+     */
+    long readFixed(int bytes) throws IOException {
+      long value = 0;
+      for (int i = 0; i < bytes; i++) {
+        value = (value << 8) | readUnsignedByte();
+      }
+      return value;
+    }
+
+    void readFully(byte[] dest, int len) throws IOException {
+      int off = 0;
+      while (off < len) {
+        if (pos == limit) {
+          fill();
+        }
+        int n = Math.min(len - off, limit - pos);
+        System.arraycopy(buf, pos, dest, off, n);
+        pos += n;
+        off += n;
+      }
+    }
+
+    private void fill() throws IOException {
+      crc.update(buf, crcPos, limit - crcPos);
+      pos = 0;
+      crcPos = 0;
+      limit = 0;
+      int n = in.read(buf, 0, buf.length);
+      if (n <= 0) {
+        throw new EOFException("Truncated text tree snapshot");
+      }
+      limit = n;
+    }
+
+    /**
+     * @return the checksum of all bytes read so far
+     */
+    long checksum() {
+      crc.update(buf, crcPos, pos - crcPos);
+      crcPos = pos;
+      return crc.getValue();
+    }
+  }
+}
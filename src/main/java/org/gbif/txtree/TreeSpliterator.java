@@ -0,0 +1,106 @@
+package org.gbif.txtree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator visiting nodes in the same order as the tree iterator:
+ * a node, then its synonyms, then its children depth first.
+ * Splits hand out whole subtrees, a single remaining subtree is split into its root and its children.
+ */
+class TreeSpliterator<T extends TreeNode<T>> implements Spliterator<T> {
+  // subtrees still to be visited, the next one being the last
+  private final ArrayList<T> stack;
+  // synonyms of the last node still to be visited
+  private Iterator<T> synonyms;
+  private long est;
+
+  TreeSpliterator(List<T> roots, long est) {
+    stack = new ArrayList<>(roots.size());
+    for (int i = roots.size() - 1; i >= 0; i--) {
+      stack.add(roots.get(i));
+    }
+    this.est = est;
+  }
+
+  private TreeSpliterator(ArrayList<T> stack, Iterator<T> synonyms, long est) {
+    this.stack = stack;
+    this.synonyms = synonyms;
+    this.est = est;
+  }
+
+  private boolean moreSynonyms() {
+    return synonyms != null && synonyms.hasNext();
+  }
+
+  private T pop() {
+    T n = stack.remove(stack.size() - 1);
+    for (Iterator<T> it = n.children.descendingIterator(); it.hasNext(); ) {
+      stack.add(it.next());
+    }
+    return n;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (moreSynonyms()) {
+      action.accept(synonyms.next());
+    } else if (!stack.isEmpty()) {
+      T n = pop();
+      synonyms = n.synonyms.isEmpty() ? null : n.synonyms.iterator();
+      action.accept(n);
+    } else {
+      return false;
+    }
+    if (est > 0) {
+      est--;
+    }
+    return true;
+  }
+
+  @Override
+  public Spliterator<T> trySplit() {
+    if (stack.size() >= 2) {
+      // the prefix gets the pending synonyms and the next half of the subtrees
+      int mid = stack.size() / 2;
+      List<T> top = stack.subList(mid, stack.size());
+      ArrayList<T> prefix = new ArrayList<>(top);
+      top.clear();
+      TreeSpliterator<T> split = new TreeSpliterator<>(prefix, synonyms, est / 2);
+      synonyms = null;
+      est -= split.est;
+      return split;
+
+    } else if (moreSynonyms()) {
+      List<T> syns = new ArrayList<>();
+      synonyms.forEachRemaining(syns::add);
+      synonyms = null;
+      est = Math.max(0, est - syns.size());
+      return Spliterators.spliterator(syns, Spliterator.ORDERED | Spliterator.NONNULL);
+
+    } else if (stack.size() == 1) {
+      // expand the single subtree, the prefix gets the root node with its synonyms
+      T n = pop();
+      List<T> prefix = new ArrayList<>(1 + n.synonyms.size());
+      prefix.add(n);
+      prefix.addAll(n.synonyms);
+      est = Math.max(0, est - prefix.size());
+      return Spliterators.spliterator(prefix, Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+    return null;
+  }
+
+  @Override
+  public long estimateSize() {
+    return est;
+  }
+
+  @Override
+  public int characteristics() {
+    return Spliterator.ORDERED | Spliterator.NONNULL;
+  }
+}
@@ -0,0 +1,273 @@
+package org.gbif.txtree;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * Applies line edits to an existing tree by re-parsing only the affected subtrees.
+ *
+ * For every edit the deepest existing node is located that encloses the changed lines
+ * and whose nested lines stay nested after the edit.
+ * Only the direct children and synonyms of that node which overlap the edit are replaced by freshly parsed nodes,
+ * so the parsing effort depends on the size of the edit and the enclosing subtree, not on the size of the tree.
+ * Nodes following the edit keep their instances, but have their id shifted if the number of lines changed.
+ * Shifting only appends a {@link LineShift} to the tree which is applied lazily when a node id is read,
+ * so an edit only touches the replaced block and its ancestors.
+ */
+class TreeUpdater<T extends TreeNode<T>> {
+  private final Tree<T> tree;
+  private final List<? extends CharSequence> lines;
+  private final BiFunction<Long, LineLexer, T> builder;
+
+  /**
+   * @param lines all lines of the edited document, copied if they do not support fast random access
+   */
+  TreeUpdater(Tree<T> tree, List<? extends CharSequence> lines, BiFunction<Long, LineLexer, T> builder) {
+    this.tree = tree;
+    this.lines = lines instanceof RandomAccess ? lines : new ArrayList<>(lines);
+    this.builder = builder;
+  }
+
+  /**
+   * The direct children and synonyms of a container node that are replaced.
+   */
+  private class Block {
+    // the container and its ancestors, starting with the root
+    final List<T> path;
+    // first and last line of the replaced block in the current tree
+    final long start;
+    final long end;
+
+    Block(List<T> path, long start, long end) {
+      this.path = path;
+      this.start = start;
+      this.end = end;
+    }
+
+    T container() {
+      return path.isEmpty() ? null : path.get(path.size() - 1);
+    }
+  }
+
+  /**
+   * @param edits non overlapping edits with line numbers referring to the document before the edits
+   * @throws IllegalArgumentException if the edits overlap or the edited lines are badly formatted.
+   *                                  Edits before the bad one have been applied.
+   */
+  void apply(List<TreeEdit> edits) {
+    List<TreeEdit> sorted = new ArrayList<>(edits);
+    sorted.sort(Comparator.comparingLong(e -> e.line));
+    for (int i = 1; i < sorted.size(); i++) {
+      TreeEdit prev = sorted.get(i - 1);
+      if (prev.line + prev.removed > sorted.get(i).line) {
+        throw new IllegalArgumentException("Overlapping tree edits " + prev + " and " + sorted.get(i));
+      }
+    }
+
+    // all edits before the current one have been applied already, moving lines by shift
+    long shift = 0;
+    int i = 0;
+    while (i < sorted.size()) {
+      TreeEdit e = sorted.get(i++);
+      long a = e.line + shift;
+      long b = a + e.removed - 1;
+      long added = e.added;
+      Block blk = locate(a, b, added);
+      // merge following edits which fall into the same block
+      while (i < sorted.size() && sorted.get(i).line + shift <= blk.end) {
+        TreeEdit next = sorted.get(i++);
+        long na = next.line + shift;
+        added += na - b - 1 + next.added;
+        b = na + next.removed - 1;
+        blk = locate(a, b, added);
+      }
+      long delta = added - (b - a + 1);
+      replace(blk, delta);
+      shift += delta;
+    }
+  }
+
+  private CharSequence line(long row) {
+    if (row > lines.size()) {
+      throw new IllegalArgumentException("Edited tree has only " + lines.size() + " lines, missing line " + row);
+    }
+    return lines.get((int) row - 1);
+  }
+
+  private static int indent(CharSequence line) {
+    int i = 0;
+    while (i < line.length() && line.charAt(i) == ' ') {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Finds the block of nodes to be replaced for the edit replacing lines a to b with the given number of new lines.
+   */
+  private Block locate(long a, long b, long added) {
+    int minIndent = Integer.MAX_VALUE;
+    for (long row = a; row < a + added; row++) {
+      CharSequence l = line(row);
+      if (l.length() > 0) {
+        minIndent = Math.min(minIndent, indent(l));
+      }
+    }
+    // descend as long as the edit stays within a single subtree and all new lines are nested in it
+    List<T> path = new ArrayList<>();
+    List<T> members = tree.getRoot();
+    long end = Long.MAX_VALUE;
+    while (true) {
+      int idx = lastBefore(members, a);
+      if (idx < 0) {
+        break;
+      }
+      long mEnd = idx + 1 < members.size() ? members.get(idx + 1).getId() - 1 : end;
+      if (b > mEnd || minIndent < 2 * (path.size() + 1)) {
+        break;
+      }
+      T m = members.get(idx);
+      path.add(m);
+      members = members(m);
+      end = mEnd;
+    }
+    // new lines might nest below the member preceding the edit, so the block starts with it
+    int first = lastBefore(members, a);
+    long start = first < 0 ? a : members.get(first).getId();
+    int last = lastBefore(members, b + 1);
+    long blockEnd = b;
+    if (last >= 0) {
+      blockEnd = Math.max(b, last + 1 < members.size() ? members.get(last + 1).getId() - 1 : end);
+    }
+    return new Block(path, start, blockEnd);
+  }
+
+  /**
+   * @return the index of the last member with an id smaller than the given line or -1
+   */
+  private static <T extends TreeNode<T>> int lastBefore(List<T> members, long line) {
+    int idx = -1;
+    for (int i = 0; i < members.size() && members.get(i).getId() < line; i++) {
+      idx = i;
+    }
+    return idx;
+  }
+
+  /**
+   * @return children and synonyms of a node in the order of their lines
+   */
+  private static <T extends TreeNode<T>> List<T> members(T n) {
+    if (n.synonyms.isEmpty()) {
+      return new ArrayList<>(n.children);
+    }
+    List<T> all = new ArrayList<>(n.synonyms.size() + n.children.size());
+    all.addAll(n.synonyms);
+    all.addAll(n.children);
+    all.sort(Comparator.comparingLong(x -> x.getId()));
+    return all;
+  }
+
+  private void replace(Block blk, long delta) {
+    final T container = blk.container();
+    final int depth = blk.path.size();
+    final List<T> children = new ArrayList<>();
+    final List<T> synonyms = new ArrayList<>();
+    final long[] created = new long[1];
+    // new nodes are parsed with their final lines, so they are only moved by later shifts
+    final boolean shifting = delta != 0 && blk.end != Long.MAX_VALUE;
+    final LineShift shift = shifting ? new LineShift(blk.end, delta) : tree.shifts;
+    TreeHandler<T> collector = new TreeHandler<T>() {
+      @Override
+      public void startNode(T node, List<T> parents) {
+        created[0]++;
+        node.attach(shift);
+        if (parents.size() == depth) {
+          node.parent = container;
+          children.add(node);
+        } else {
+          T p = parents.get(parents.size() - 1);
+          p.children.add(node);
+          node.parent = p;
+        }
+      }
+
+      @Override
+      public void synonym(T synonym, List<T> parents) {
+        created[0]++;
+        synonym.attach(shift);
+        if (parents.size() == depth) {
+          synonym.parent = container;
+          synonyms.add(synonym);
+        } else {
+          T p = parents.get(parents.size() - 1);
+          p.synonyms.add(synonym);
+          synonym.parent = p;
+        }
+      }
+    };
+
+    // parse the new block before touching the tree, so a bad edit leaves it intact
+    long newEnd = blk.end == Long.MAX_VALUE ? lines.size() : blk.end + delta;
+    TreeParser<T> parser = new TreeParser<>(builder, collector, null, blk.start - 1);
+    parser.resume(blk.path);
+    for (long row = blk.start; row <= newEnd; row++) {
+      parser.line(line(row));
+    }
+
+    List<T> containerChildren = container == null ? tree.getRoot() : container.children;
+    long removed = remove(containerChildren, blk.start, blk.end);
+    if (container != null) {
+      removed += remove(container.synonyms, blk.start, blk.end);
+    }
+    if (shifting) {
+      tree.shift(shift);
+    }
+    insert(containerChildren, children, blk.start);
+    if (container != null) {
+      insert(container.synonyms, synonyms, blk.start);
+    }
+    tree.updated(created[0] - removed);
+  }
+
+  /**
+   * Removes all nodes starting within the given lines.
+   * @return the number of removed nodes incl all nested ones
+   */
+  private static <T extends TreeNode<T>> long remove(List<T> list, long start, long end) {
+    long removed = 0;
+    for (Iterator<T> it = list.iterator(); it.hasNext(); ) {
+      T n = it.next();
+      if (n.getId() >= start && n.getId() <= end) {
+        it.remove();
+        removed += count(n);
+      }
+    }
+    return removed;
+  }
+
+  private static <T extends TreeNode<T>> long count(T n) {
+    long count = 0;
+    Deque<T> stack = new ArrayDeque<>();
+    stack.push(n);
+    while (!stack.isEmpty()) {
+      T x = stack.pop();
+      count++;
+      x.children.forEach(stack::push);
+      x.synonyms.forEach(stack::push);
+    }
+    return count;
+  }
+
+  private static <T extends TreeNode<T>> void insert(List<T> list, List<T> nodes, long start) {
+    if (!nodes.isEmpty()) {
+      int idx = 0;
+      for (T n : list) {
+        if (n.getId() >= start) {
+          break;
+        }
+        idx++;
+      }
+      list.addAll(idx, nodes);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package org.gbif.txtree;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Verifies the syntax and indentation of a text tree in a single pass over its lines without building any nodes.
+ * Only the indentation of the previous line and the errors found so far are kept,
+ * so memory stays constant for inputs of any size.
+ */
+class TreeVerifier {
+  private final int maxErrors;
+  private final LineLexer lexer = new LineLexer();
+  private final List<Tree.VerificationError> errors = new ArrayList<>();
+
+  /**
+   * @param maxErrors the number of errors after which verification stops
+   */
+  TreeVerifier(int maxErrors) {
+    this.maxErrors = Math.max(1, maxErrors);
+  }
+
+  Tree.VerificationResult verify(LineSource lines) throws IOException {
+    CharSequence line = lines.next();
+    int lineNumber = 1;
+    int max = 0;
+    int last = 0;
+    while (line != null) {
+      if (!StringUtils.isBlank(line)) {
+        if (lexer.lex(line)) {
+          int level = lexer.indent();
+          max = Math.max(max, level);
+          if (level % 2 != 0) {
+            error(String.format("Tree is not indented properly on line %s. Use 2 spaces only: %s", lineNumber, line), lineNumber);
+          } else if (level - last > 2) {
+            error(String.format("Tree is indented too much on line %s. Use 2 spaces only: %s", lineNumber, line), lineNumber);
+          }
+          last = level;
+        } else {
+          error(String.format("Failed to parse Tree on line %s: %s", lineNumber, line), lineNumber);
+          // assume the indentation was meant right so the following lines can still be verified
+          last = indentation(line);
+        }
+        if (errors.size() >= maxErrors) {
+          break;
+        }
+      }
+      line = lines.next();
+      lineNumber++;
+    }
+    if (errors.isEmpty() && max == 0 && lineNumber > 8) {
+      error("Tree is not indented at all", lineNumber);
+    }
+    if (errors.isEmpty()) {
+      // should we require some other level than just 0???
+      return new Tree.VerificationResult(true, lineNumber - 1, "The tree is valid", errors);
+    }
+    Tree.VerificationError first = errors.get(0);
+    return new Tree.VerificationResult(false, first.line, first.message, errors);
+  }
+
+  private void error(String message, int lineNumber) {
+    errors.add(new Tree.VerificationError(lineNumber, message));
+  }
+
+  private static int indentation(CharSequence line) {
+    int i = 0;
+    while (i < line.length() && line.charAt(i) == ' ') {
+      i++;
+    }
+    return i - i % 2;
+  }
+}
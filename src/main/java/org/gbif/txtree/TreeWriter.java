@@ -0,0 +1,162 @@
+package org.gbif.txtree;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes trees as UTF8 encoded text trees straight into a reusable byte buffer,
+ * producing exactly the same bytes as {@link Tree#print(OutputStream)}.
+ * Nodes are visited iteratively, so trees of any depth can be written,
+ * and indentation is copied from a cached prefix instead of building new strings.
+ *
+ * Writers are not thread safe. The underlying stream or channel is never closed.
+ */
+public class TreeWriter implements Flushable {
+  private final ByteOutput out;
+  private byte[] spaces = new byte[64];
+  // explicit stack of the nodes still to be written
+  private TreeNode<?>[] nodes = new TreeNode<?>[64];
+  private int[] levels = new int[64];
+  private boolean[] synonyms = new boolean[64];
+  private int size;
+
+  public TreeWriter(OutputStream out) {
+    this.out = new ByteOutput(out);
+    Arrays.fill(spaces, (byte) ' ');
+  }
+
+  public TreeWriter(WritableByteChannel channel) {
+    this.out = new ByteOutput(channel);
+    Arrays.fill(spaces, (byte) ' ');
+  }
+
+  /**
+   * Writes the entire tree. Call {@link #flush()} to make sure all bytes are written.
+   */
+  public <T extends TreeNode<T>> void write(Tree<T> tree) throws IOException {
+    for (T n : tree.getRoot()) {
+      write(n, 0, false);
+    }
+  }
+
+  /**
+   * Writes a node with all its synonyms and children at the given indentation level.
+   */
+  public void write(TreeNode<?> node, int level, boolean synonym) throws IOException {
+    push(node, level, synonym);
+    while (size > 0) {
+      size--;
+      TreeNode<?> n = nodes[size];
+      int lvl = levels[size];
+      boolean syn = synonyms[size];
+      nodes[size] = null;
+      writeLine(n, lvl, syn);
+      // synonyms are written before the children, so they are pushed last
+      pushReversed(n.children, lvl + 1, false);
+      pushReversed(n.synonyms, lvl + 1, true);
+    }
+  }
+
+  private void pushReversed(List<? extends TreeNode<?>> list, int level, boolean synonym) {
+    if (!list.isEmpty()) {
+      int start = size;
+      for (TreeNode<?> n : list) {
+        push(n, level, synonym);
+      }
+      for (int i = start, j = size - 1; i < j; i++, j--) {
+        TreeNode<?> tmp = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = tmp;
+      }
+    }
+  }
+
+  private void push(TreeNode<?> n, int level, boolean synonym) {
+    if (size == nodes.length) {
+      nodes = Arrays.copyOf(nodes, size * 2);
+      levels = Arrays.copyOf(levels, size * 2);
+      synonyms = Arrays.copyOf(synonyms, size * 2);
+    }
+    nodes[size] = n;
+    levels[size] = level;
+    synonyms[size] = synonym;
+    size++;
+  }
+
+  private void writeLine(TreeNode<?> n, int level, boolean synonym) throws IOException {
+    indent(level * 2);
+    if (synonym) {
+      if (n.homotypic) {
+        write(Tree.HOMOTYPIC_SYMBOL);
+      } else {
+        write(Tree.SYNONYM_SYMBOL);
+      }
+    }
+    if (n.basionym) {
+      write(Tree.BASIONYM_SYMBOL);
+    }
+    if (n.extinct) {
+      write(Tree.EXTINCT_SYMBOL);
+    }
+    if (n.provisional) {
+      write(Tree.PROVISIONAL_SYMBOL);
+    }
+    write(n.name);
+    if (n.rank != null) {
+      write(" [");
+      write(n.rank);
+      write(']');
+    }
+    if (n.infos != null && !n.infos.isEmpty()) {
+      write(" {");
+      boolean first = true;
+      for (Map.Entry<String, String[]> x : n.infos.entrySet()) {
+        if (!first) {
+          write(' ');
+        }
+        first = false;
+        write(x.getKey().toUpperCase());
+        write('=');
+        boolean multi = false;
+        for (String val : x.getValue()) {
+          if (multi) {
+            write(',');
+          }
+          write(val);
+          multi = true;
+        }
+      }
+      write('}');
+    }
+    write('\n');
+  }
+
+  private void indent(int len) throws IOException {
+    if (len > spaces.length) {
+      spaces = new byte[Math.max(len, spaces.length * 2)];
+      Arrays.fill(spaces, (byte) ' ');
+    }
+    out.write(spaces, 0, len);
+  }
+
+  private void write(char c) throws IOException {
+    out.write(c);
+  }
+
+  private void write(String s) throws IOException {
+    out.write(s);
+  }
+
+  /**
+   * Writes all buffered bytes and flushes the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+}
@@ -0,0 +1,60 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DwcaWriterTest {
+
+  @Test
+  public void infos() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DwcaWriter<SimpleTreeNode> writer = new DwcaWriter<>(out, List.of("ID", "ref"));
+    Tree.streamSimple(MappedLinesTest.path("infos.txt"), writer);
+    String[] rows = out.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(9, rows.length);
+    assertEquals(8, writer.rows());
+    assertEquals("taxonID\tparentNameUsageID\tacceptedNameUsageID\tscientificName\ttaxonRank\ttaxonomicStatus\tisExtinct\tbasionym\ttaxonRemarks\tid\tref", rows[0]);
+    assertEquals("1\t\t\tPinales\torder\taccepted\t\t\t\t\t", rows[1]);
+    assertEquals("4\t3\t\tAbies alba Mill.\tgenus\taccepted\t\t\t\t1234\tDöring2021|Banki2022", rows[4]);
+    assertEquals("5\t\t4\tPinus picea L.\tspecies\tsynonym\t\t\t\t\t", rows[5]);
+    assertEquals("7\t\t6\tPinus balsamea L.\tspecies\tsynonym\t\ttrue\tthis is the basionym of A. balsamea\t\t", rows[7]);
+
+    ByteArrayOutputStream meta = new ByteArrayOutputStream();
+    writer.writeMeta(meta);
+    String xml = meta.toString(StandardCharsets.UTF_8);
+    assertTrue(xml.contains("<field index=\"2\" term=\"http://rs.tdwg.org/dwc/terms/acceptedNameUsageID\"/>"));
+    assertTrue(xml.contains("<field index=\"10\" term=\"" + DwcaWriter.TXTREE + "ref\" delimitedBy=\"|\"/>"));
+  }
+
+  @Test
+  public void valuesWithCommas() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DwcaWriter<SimpleTreeNode> writer = new DwcaWriter<>(out, List.of("TM"));
+    Tree.streamSimple(MappedLinesTest.path("infos.txt"), writer);
+    String[] rows = out.toString(StandardCharsets.UTF_8).split("\n");
+    assertTrue(rows[8].endsWith("\tholotype:Berlin,B45641|paratype:Berlin,B8932"));
+  }
+
+  @Test
+  public void export() throws Exception {
+    Path dir = Files.createTempDirectory("dwca");
+    try {
+      long rows = DwcaWriter.export(MappedLinesTest.path("test2.txt"), dir, List.of());
+      assertEquals(Tree.simple(MappedLinesTest.path("test2.txt")).size(), rows);
+      List<String> lines = Files.readAllLines(dir.resolve(DwcaWriter.CORE_FILE));
+      assertEquals(rows + 1, lines.size());
+      assertTrue(Files.exists(dir.resolve(DwcaWriter.META_FILE)));
+    } finally {
+      Files.deleteIfExists(dir.resolve(DwcaWriter.CORE_FILE));
+      Files.deleteIfExists(dir.resolve(DwcaWriter.META_FILE));
+      Files.deleteIfExists(dir);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.gbif.txtree;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes sure the lexer produces exactly the same line parts as the reference regex.
+ */
+public class LineLexerTest {
+  private static final String ANY_CHAR = "[^\t\n\r]";
+  /**
+   * The reference grammar of a single tree line.
+   */
+  private static final Pattern LINE_PARSER = Pattern.compile("^" +
+      "((?:  )*)" + // indent #1
+      "([=≡$†?*]+ *)?" + // name prefix symbols #2
+      "([^\t\n\r\\s]"+ANY_CHAR+"+?)" +   // name & author #3
+      "(?: \\[([a-z _-]+)])?" +  // rank #4
+      "(?: +\\{("+ANY_CHAR+"*)})?" +  // infos #5
+      "(?:\\s+#\\s*(.*))?" +  // comments #6
+      "\\s*$");
+  private static final String[] RESOURCES = {
+      "badly-indented.txt", "badranks.txtree", "badtree.txt", "dwca.txt", "extinct.txtree", "homotypic.txtree",
+      "infos.txt", "notree.txt", "notree2.txt", "oldstyle.txtree", "prov.txtree", "synonymy.txtree", "test-ranks.txt",
+      "test.txt", "test2-no-comments.txt", "test2.txt", "test3.txt", "test3clean.txt", "test4comments.txt"
+  };
+
+  private static final String[] LINES = {
+      "",
+      " ",
+      "  ",
+      "A",
+      "Ab",
+      "=A",
+      "=Ab",
+      "??",
+      "? ?",
+      "=$ Abies alba",
+      "= \tAbies",
+      "   Abies alba",
+      "\tAbies alba",
+      "Abies  [species]",
+      "Abies [species ]",
+      "Abies [ species]",
+      "Abies [Species]",
+      "Abies []",
+      "Abies alba [species] x",
+      "Abies alba [species]   ",
+      "Abies alba [species] {ID=1}",
+      "Abies alba [species]{ID=1}",
+      "Abies alba {ID=1} # see {x}",
+      "Abies alba {ID=1} {REF=2}",
+      "Abies alba {ID=1}\t# tabbed",
+      "Abies alba {ID=1\t2}",
+      "Abies alba {} #",
+      "Abies # comment # more",
+      "Abies#nocomment",
+      "A # c",
+      "Abies alba Mill. [species] {ID=1 REF=a,,b} # comment\twith tab  ",
+      "Abies alba\tMill.",
+      "Abies alba Mill.\t",
+      "Abies alba\u2028",
+      "Abies alba # comment\u0085",
+      "Abies alba # com\u2029ment",
+      "Abies # com ment",
+      "𝔄",
+      "𝔄b",
+      "†≡$?Abies alba",
+      "** Abies alba",
+      "  =  Abies   alba   [ sub species ]   {  ID=1  }   #   comment   "
+  };
+
+  @Test
+  public void resources() throws Exception {
+    int lines = 0;
+    for (String res : RESOURCES) {
+      try (InputStream in = resource(res)) {
+        List<String> rows = IOUtils.readLines(in, StandardCharsets.UTF_8);
+        for (String line : rows) {
+          assertSameParts(line);
+          lines++;
+        }
+      }
+    }
+    assertTrue(lines > 100);
+  }
+
+  @Test
+  public void edgeCases() throws Exception {
+    for (String line : LINES) {
+      assertSameParts(line);
+    }
+  }
+
+  private static void assertSameParts(String line) {
+    LineLexer lexer = new LineLexer();
+    Matcher m = LINE_PARSER.matcher(line);
+    boolean found = m.find();
+    String msg = " for line >" + line + "<";
+    assertEquals("Different match" + msg, found, lexer.lex(line));
+    if (found) {
+      assertEquals("Different indent" + msg, m.group(1).length(), lexer.indent());
+      assertEquals("Different flags" + msg, m.group(2), lexer.flags());
+      // the lexer trims names and ranks, blank ranks are missing
+      assertEquals("Different name" + msg, m.group(3).trim(), lexer.name());
+      String rank = m.group(4) == null || m.group(4).isBlank() ? null : m.group(4).trim();
+      assertEquals("Different rank" + msg, rank, lexer.rank());
+      assertEquals("Different infos" + msg, m.group(5), lexer.infos());
+      assertEquals("Different comment" + msg, m.group(6), lexer.comment());
+    }
+  }
+
+  static InputStream resource(String resourceName) {
+    return ClassLoader.getSystemResourceAsStream(resourceName);
+  }
+}
@@ -0,0 +1,116 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes sure memory mapped files and reused line buffers are read exactly as a BufferedReader over a UTF8 InputStreamReader reads them.
+ */
+public class MappedLinesTest {
+
+  @Test
+  public void sameAsReader() throws Exception {
+    String[] contents = {
+        "",
+        "\n",
+        "\r\n\r\n",
+        "a",
+        "a\n",
+        "a\r",
+        "a\rb\r\nc\n\rd",
+        "Abies alba Mill. [species]\n  =Pinus picea L.\r\n  ≡$Pinus balsamea L.",
+        "†Crocodylus megarhinus Andrews, 1905\n€uro Döring 𝔊   line\u0085",
+    };
+    for (String c : contents) {
+      assertSameLines(c.getBytes(StandardCharsets.UTF_8));
+    }
+    // malformed UTF8
+    assertSameLines(new byte[]{'a', (byte) 0xE2, (byte) 0x82, '\n', (byte) 0xFF, 'b', (byte) 0xF0, (byte) 0x9D});
+
+    Random rnd = new Random(42);
+    byte[] alphabet = "ab =\r\n€𝔊".getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < 500; i++) {
+      byte[] bytes = new byte[rnd.nextInt(200)];
+      for (int j = 0; j < bytes.length; j++) {
+        bytes[j] = alphabet[rnd.nextInt(alphabet.length)];
+      }
+      assertSameLines(bytes);
+    }
+  }
+
+  private static void assertSameLines(byte[] bytes) throws Exception {
+    List<String> expected = new ArrayList<>();
+    BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+    String line;
+    while ((line = br.readLine()) != null) {
+      expected.add(line);
+    }
+    List<String> readerLines = new ArrayList<>();
+    ReaderLines rl = new ReaderLines(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+    CharSequence cs;
+    while ((cs = rl.next()) != null) {
+      readerLines.add(cs.toString());
+    }
+    assertEquals("reader", expected, readerLines);
+
+    Path tmp = Files.createTempFile("txtree", ".txt");
+    try {
+      Files.write(tmp, bytes);
+      // tiny windows make lines and characters span several windows
+      for (int window : new int[]{4, 5, 7, 64, 1 << 30}) {
+        List<String> lines = new ArrayList<>();
+        try (MappedLines ml = new MappedLines(tmp, window)) {
+          CharSequence l;
+          while ((l = ml.next()) != null) {
+            lines.add(l.toString());
+          }
+        }
+        assertEquals("window " + window, expected, lines);
+      }
+    } finally {
+      Files.delete(tmp);
+    }
+  }
+
+  @Test
+  public void trees() throws Exception {
+    for (String res : new String[]{"test.txt", "test2.txt", "test3.txt", "infos.txt", "synonymy.txtree", "homotypic.txtree", "test4comments.txt"}) {
+      StringWriter expected = new StringWriter();
+      Tree.simple(TreeTest.resource(res)).print(expected);
+
+      StringWriter buffer = new StringWriter();
+      Tree.simple(path(res)).print(buffer);
+      assertEquals(res, expected.toString(), buffer.toString());
+
+      buffer = new StringWriter();
+      Tree.compact(path(res)).print(buffer);
+      assertEquals(res, expected.toString(), buffer.toString());
+
+      assertTrue(res, Tree.verify(path(res)).valid);
+    }
+    assertFalse(Tree.verify(path("badly-indented.txt")).valid);
+    assertFalse(Tree.verify(path("notree.txt")).valid);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void badTree() throws Exception {
+    Tree.simple(path("badtree.txt"));
+  }
+
+  static Path path(String resourceName) throws Exception {
+    return Paths.get(ClassLoader.getSystemResource(resourceName).toURI());
+  }
+}
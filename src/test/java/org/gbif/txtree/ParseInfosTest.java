@@ -0,0 +1,68 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes sure infos are parsed exactly as by the regular expressions the hand written parsing replaced.
+ */
+public class ParseInfosTest {
+  // the reference info syntax
+  private static final Pattern INFO_PARSER = Pattern.compile("([A-Z]+)=([^=]+)(?: |$)");
+  private static final Pattern COMMA_SPLITTER = Pattern.compile("\\s*(?<!,),(?!,)\\s*");
+
+  @Test
+  public void infos() throws Exception {
+    String[] infos = {
+        "ID=1234 PUB=Miller2019 ENV=terrestrial,marine REF=Döring2021,Banki2022",
+        "VERN=de:Traubeneiche,fr:Chêne rouvre,dk:Vintereg,nl:Wintereik",
+        "TM=holotype:Berlin,,B45641,paratype:Berlin,,B8932 CODE=botany",
+        "A=x y B=z", "A=xB=z", "xID=5", "A=", "A==b", "A=,b", "A=b,", "A=,", "A= b , c ,,d  ", "", " ", "ID=1 ID=2",
+        "A=a,,,b", "A=a, ,b", "A=a,, ,b", "A=a\f,\u000Bb", "A=,,", "A=,,,", "abc=def", "=x", "A=b c=d"
+    };
+    for (String x : infos) {
+      assertSameInfos(x);
+    }
+    Random rnd = new Random(11);
+    String alphabet = "AB=x ,,\ta\f";
+    for (int i = 0; i < 50000; i++) {
+      StringBuilder sb = new StringBuilder();
+      int len = rnd.nextInt(16);
+      for (int j = 0; j < len; j++) {
+        sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+      }
+      assertSameInfos(sb.toString());
+    }
+  }
+
+  /**
+   * Compares infos with the regular expression based parsing they replace, with and without sharing strings.
+   */
+  private static void assertSameInfos(String x) {
+    Map<String, String[]> expected = new LinkedHashMap<>();
+    Matcher im = INFO_PARSER.matcher(x);
+    while (im.find()) {
+      var vals = COMMA_SPLITTER.split(im.group(2).trim());
+      expected.put(im.group(1), Arrays.stream(vals)
+          .map(v -> v.replaceAll(",,", ","))
+          .toArray(String[]::new)
+      );
+    }
+    for (Map<String, String[]> infos : Arrays.asList(Tree.parseInfos(x, new StringCache(16)), Tree.parseInfos(x))) {
+      assertEquals("Different keys for >" + x + "<", expected.keySet(), infos.keySet());
+      for (String key : expected.keySet()) {
+        assertArrayEquals("Different values for >" + x + "<", expected.get(key), infos.get(key));
+      }
+    }
+    // lazy infos are only created if there is something to decode
+    assertEquals("Different presence for >" + x + "<", !expected.isEmpty(), Tree.hasInfos(x));
+  }
+}
@@ -0,0 +1,38 @@
+package org.gbif.txtree;
+
+import org.gbif.nameparser.api.ParsedName;
+import org.gbif.nameparser.api.Rank;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes sure the cache keeps exactly as many names as configured, also for sizes that are no multiple of its segments.
+ */
+public class ParsedNameCacheTest {
+
+  @Test
+  public void maxSize() throws Exception {
+    for (int size : new int[]{1, 3, 15, 16, 17, 100, 1000}) {
+      ParsedNameCache cache = new ParsedNameCache(size);
+      // enough names to fill every segment
+      for (int i = 0; i < size * 50; i++) {
+        cache.parse("Abies alba" + i, Rank.SPECIES);
+      }
+      assertEquals(size, cache.size());
+    }
+  }
+
+  @Test
+  public void shared() throws Exception {
+    ParsedNameCache cache = new ParsedNameCache(1);
+    ParsedName pn = cache.parse("Abies alba", Rank.SPECIES);
+    assertSame(pn, cache.parse("Abies alba", Rank.SPECIES));
+    assertNotSame(pn, cache.parse("Abies alba", Rank.GENUS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroSize() {
+    new ParsedNameCache(0);
+  }
+}
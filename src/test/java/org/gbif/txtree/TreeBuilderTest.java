@@ -0,0 +1,104 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TreeBuilderTest {
+
+  @Test
+  public void rebuild() throws Exception {
+    for (String res : new String[]{"test2.txt", "infos.txt", "synonymy.txtree"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(MappedLinesTest.path(res));
+
+      List<Runnable> rows = new ArrayList<>();
+      TreeBuilder b = new TreeBuilder();
+      TreeCursor<SimpleTreeNode> c = tree.cursor();
+      while (c.next()) {
+        SimpleTreeNode n = c.node();
+        long parent = c.parent() == null ? TreeBuilder.NONE : c.parent().getId();
+        boolean syn = c.isSynonym();
+        rows.add(() -> b.add(n.getId(), syn ? TreeBuilder.NONE : parent, syn ? parent : TreeBuilder.NONE,
+            n.name, n.rank, n.extinct, n.basionym, n.homotypic, n.provisional, n.infos));
+      }
+      Collections.shuffle(rows, new Random(17));
+      rows.forEach(Runnable::run);
+      assertEquals(tree.size(), b.size());
+
+      Tree<SimpleTreeNode> tree2 = b.build();
+      assertEquals(tree.size(), tree2.size());
+      // siblings keep the order of the shuffled rows
+      sortById(tree2.getRoot());
+      assertEquals(res, print(tree), print(tree2));
+      assertEquals(tree.index().byId(7).getParent().getId(), tree2.index().byId(7).getParent().getId());
+    }
+  }
+
+  @Test
+  public void orphans() {
+    TreeBuilder b = new TreeBuilder()
+        .add(1, TreeBuilder.NONE, TreeBuilder.NONE, "Abies", "genus")
+        .add(2, 1, TreeBuilder.NONE, "Abies alba", "species")
+        .add(3, 99, TreeBuilder.NONE, "Abies nigra", "species");
+    assertThrows(b, "orphan");
+
+    b = new TreeBuilder()
+        .add(1, TreeBuilder.NONE, TreeBuilder.NONE, "Abies", "genus")
+        .add(2, TreeBuilder.NONE, 98, "Pinus alba", "species");
+    assertThrows(b, "orphan");
+  }
+
+  @Test
+  public void cycles() {
+    TreeBuilder b = new TreeBuilder()
+        .add(1, TreeBuilder.NONE, TreeBuilder.NONE, "Abies", "genus")
+        .add(2, 4, TreeBuilder.NONE, "Abies alba", "species")
+        .add(3, 2, TreeBuilder.NONE, "Abies alba alba", "subspecies")
+        .add(4, 3, TreeBuilder.NONE, "Abies alba nigra", "variety")
+        .add(5, 4, TreeBuilder.NONE, "Abies alba nigra x", "form");
+    assertThrows(b, "Cycle");
+
+    // a synonym pointing to itself
+    b = new TreeBuilder()
+        .add(1, TreeBuilder.NONE, 1, "Abies", "genus");
+    assertThrows(b, "Cycle");
+  }
+
+  @Test
+  public void duplicates() {
+    TreeBuilder b = new TreeBuilder()
+        .add(1, TreeBuilder.NONE, TreeBuilder.NONE, "Abies", "genus")
+        .add(1, 1, TreeBuilder.NONE, "Abies alba", "species");
+    assertThrows(b, "Duplicate");
+  }
+
+  private static void assertThrows(TreeBuilder b, String msg) {
+    try {
+      b.build();
+      fail("Expected failure: " + msg);
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(msg));
+    }
+  }
+
+  private static void sortById(List<SimpleTreeNode> nodes) {
+    nodes.sort(Comparator.comparingLong(n -> n.getId()));
+    for (SimpleTreeNode n : nodes) {
+      sortById(n.synonyms);
+      sortById(n.children);
+    }
+  }
+
+  private static String print(Tree<?> tree) throws Exception {
+    StringWriter buffer = new StringWriter();
+    tree.print(buffer);
+    return buffer.toString();
+  }
+}
@@ -0,0 +1,98 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TreeDiffTest {
+
+  @Test
+  public void identical() throws Exception {
+    for (String res : new String[]{"test2.txt", "synonymy.txtree", "homotypic.txtree"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(ClassLoader.getSystemResourceAsStream(res));
+      Tree<SimpleTreeNode> tree2 = Tree.simple(ClassLoader.getSystemResourceAsStream(res));
+      assertTrue(res, TreeDiff.diff(tree, tree2).isEmpty());
+    }
+  }
+
+  @Test
+  public void diff() throws Exception {
+    Tree<SimpleTreeNode> t1 = tree(
+        "Plantae [kingdom]",
+        "  Pinales [order]",
+        "    Pinaceae [family]",
+        "      Pinus [genus]",
+        "        Pinus alba [species]",
+        "        Pinus nigra [species]",
+        "      Abies [genus]",
+        "        Abies alba [species]",
+        "        Abies nigra [species]",
+        "      Picea [genus]",
+        "  Fagales [order]",
+        "    Fagaceae [family]",
+        "      Quercus [genus]",
+        "        Quercus robur [species]",
+        "          =Quercus pedunculata [species]"
+    );
+    Tree<SimpleTreeNode> t2 = tree(
+        "Plantae [kingdom]",
+        "  Pinales [order]",
+        "    Pinaceae [family]",
+        "      Pinus [genus]",
+        "        Pinus alba [subspecies]",
+        "        †Pinus nigra [species]",
+        "          =Pinus negra [species]",
+        "      Abiesa [genus]",
+        "        Abies alba [species]",
+        "        Abies nigra [species]",
+        "    Fagaceae [family]",
+        "      Quercus [genus]",
+        "        Quercus robur [species]",
+        "        Quercus pedunculata [species]",
+        "  Fagales [order]",
+        "  Rosales [order]"
+    );
+    List<String> changes = new ArrayList<>();
+    for (TreeDiff.Change<SimpleTreeNode> c : TreeDiff.diff(t1, t2)) {
+      changes.add(c.type + " " + (c.newNode == null ? c.oldNode.name : c.newNode.name));
+    }
+    assertEquals(List.of(
+        "INSERTED Rosales",
+        "MOVED Fagaceae",
+        "RENAMED Abiesa",
+        "RANK Pinus alba",
+        "FLAGS Pinus nigra",
+        "SYNONYM_STATUS Quercus pedunculata",
+        "MOVED Quercus pedunculata",
+        "INSERTED Pinus negra",
+        "DELETED Picea"
+    ), changes);
+  }
+
+  @Test
+  public void duplicateNames() throws Exception {
+    Tree<SimpleTreeNode> t1 = tree(
+        "Aa [genus]",
+        "  Incertae sedis",
+        "Bb [genus]",
+        "  Incertae sedis",
+        "    Bb alba [species]"
+    );
+    Tree<SimpleTreeNode> t2 = tree(
+        "Bb [genus]",
+        "  Incertae sedis",
+        "    Bb alba [species]",
+        "Aa [genus]",
+        "  Incertae sedis"
+    );
+    assertTrue(TreeDiff.diff(t1, t2).isEmpty());
+  }
+
+  private static Tree<SimpleTreeNode> tree(String... lines) throws Exception {
+    return Tree.simple(new StringReader(String.join("\n", lines)));
+  }
+}
@@ -0,0 +1,149 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TreeHashesTest {
+  private static final String[] TREE = {
+      "Plantae [kingdom]",
+      "  Pinales [order]",
+      "    Pinaceae [family]",
+      "      Pinus [genus]",
+      "        Pinus alba [species] {ID=1 REF=a,,b,c}",
+      "          =Pinus blanca [species]",
+      "        Pinus nigra [species]",
+      "      Abies [genus]",
+      "        Abies alba [species]",
+      "        Abies nigra [species]",
+      "  Fagales [order]",
+      "    Fagaceae [family]",
+      "      Quercus [genus]",
+      "        Quercus robur [species]",
+      "          =Quercus pedunculata [species]",
+      "Animalia [kingdom]"
+  };
+
+  @Test
+  public void identical() throws Exception {
+    for (String res : new String[]{"test2.txt", "synonymy.txtree", "infos.txt"}) {
+      TreeHashes<SimpleTreeNode> h1 = TreeHashes.of(Tree.simple(ClassLoader.getSystemResourceAsStream(res)));
+      TreeHashes<SimpleTreeNode> h2 = TreeHashes.of(Tree.simple(ClassLoader.getSystemResourceAsStream(res)));
+      assertEquals(32, h1.digest().length());
+      assertEquals(h1.digest(), h2.digest());
+      assertTrue(h1.sameTree(h2));
+      assertTrue(h1.changed(h2).isEmpty());
+    }
+  }
+
+  @Test
+  public void stable() throws Exception {
+    // hashes are meant as persistent cache keys and must never change
+    TreeHashes<SimpleTreeNode> h = hashes(TREE);
+    assertEquals("d97d156f4a6b96db51374964f14b1ac8", h.digest());
+    assertEquals("e9b6e346c34502ccf7cd0e00389551ce", h.digest(node(h, "Pinus")));
+  }
+
+  @Test
+  public void idsAndComments() throws Exception {
+    List<String> lines = new ArrayList<>(List.of(TREE));
+    lines.add(0, "");
+    lines.set(4, lines.get(4) + "  # a comment");
+    assertEquals(hashes(TREE).digest(), hashes(lines.toArray(new String[0])).digest());
+  }
+
+  @Test
+  public void changed() throws Exception {
+    TreeHashes<SimpleTreeNode> old = hashes(TREE);
+
+    // a changed info value deep down
+    String[] lines = TREE.clone();
+    lines[4] = "        Pinus alba [species] {ID=1 REF=a,,b,d}";
+    TreeHashes<SimpleTreeNode> h = hashes(lines);
+    assertFalse(h.sameTree(old));
+    assertEquals(List.of("Pinus alba"), names(h.changed(old)));
+    assertNotEquals(old.digest(node(old, "Pinus")), h.digest(node(h, "Pinus")));
+    assertTrue(h.sameSubtree(node(h, "Abies"), old, node(old, "Abies")));
+    assertTrue(h.sameSubtree(node(h, "Fagales"), old, node(old, "Fagales")));
+
+    // flags of a synonym
+    lines = TREE.clone();
+    lines[5] = "          =$Pinus blanca [species]";
+    assertEquals(List.of("Pinus blanca"), names(hashes(lines).changed(old)));
+
+    // new and removed nodes
+    List<String> edited = new ArrayList<>(List.of(TREE));
+    edited.remove(9);
+    edited.add(6, "        Pinus rubra [species]");
+    h = hashes(edited.toArray(new String[0]));
+    assertEquals(List.of("Pinus rubra", "Abies"), names(h.changed(old)));
+
+    // reordered children
+    edited = new ArrayList<>(List.of(TREE));
+    edited.add(1, edited.remove(10));
+    edited.add(2, edited.remove(11));
+    edited.add(3, edited.remove(12));
+    edited.add(4, edited.remove(13));
+    edited.add(5, edited.remove(14));
+    h = hashes(edited.toArray(new String[0]));
+    assertEquals(List.of("Plantae"), names(h.changed(old)));
+    assertTrue(h.sameSubtree(node(h, "Fagales"), old, node(old, "Fagales")));
+  }
+
+  @Test
+  public void afterUpdate() throws Exception {
+    List<String> lines = new ArrayList<>(List.of(TREE));
+    Tree<SimpleTreeNode> tree = Tree.simple(new StringReader(String.join("\n", lines)));
+    TreeHashes<SimpleTreeNode> old = TreeHashes.of(tree);
+    String fagales = old.digest(node(old, "Fagales"));
+
+    // shifts the ids of all following nodes shared by both versions
+    lines.add(6, "        Pinus rubra [species]");
+    tree.update(lines, new TreeEdit(7, 0, 1));
+    TreeHashes<SimpleTreeNode> h = TreeHashes.of(tree);
+    SimpleTreeNode node = node(h, "Fagales");
+    assertSame(node(old, "Fagales"), node);
+    assertEquals(12, node.getId());
+    assertEquals(fagales, old.digest(node));
+    assertTrue(h.sameSubtree(node, old, node));
+    assertFalse(h.sameSubtree(node(h, "Pinus"), old, node(old, "Pinus")));
+  }
+
+  @Test
+  public void parallel() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      sb.append("Genus").append(i).append(" [genus]\n");
+      sb.append("  Genus").append(i).append(" alba [species]\n");
+    }
+    Tree<SimpleTreeNode> tree = Tree.simple(new StringReader(sb.toString()));
+    TreeHashes<SimpleTreeNode> h = TreeHashes.of(tree);
+    // the last genus changes
+    sb.append("  Genus9999 nigra [species]\n");
+    TreeHashes<SimpleTreeNode> h2 = TreeHashes.of(Tree.simple(new StringReader(sb.toString())));
+    assertEquals(List.of("Genus9999 nigra"), names(h2.changed(h)));
+    assertEquals(h.digest(), TreeHashes.of(tree).digest());
+  }
+
+  private static SimpleTreeNode node(TreeHashes<SimpleTreeNode> h, String name) {
+    for (SimpleTreeNode n : h.tree()) {
+      if (n.name.equals(name)) {
+        return n;
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
+
+  private static List<String> names(List<SimpleTreeNode> nodes) {
+    return nodes.stream().map(n -> n.name).collect(Collectors.toList());
+  }
+
+  private static TreeHashes<SimpleTreeNode> hashes(String... lines) throws Exception {
+    return TreeHashes.of(Tree.simple(new StringReader(String.join("\n", lines))));
+  }
+}
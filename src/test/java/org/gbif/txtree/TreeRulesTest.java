@@ -0,0 +1,108 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TreeRulesTest {
+  private static final String TREE = String.join("\n",
+      "Plantae [kingdom]",
+      "  Pinaceae [family]",
+      "    Pinus [genus]",
+      "      Pinus alba [species]",
+      "        =$Pinus blanca [species]",
+      "        =$Pinus bianca [species]",
+      "          Pinus bianca var. alpina [variety]",
+      "      Pinus nigra [species]",
+      "        Pinus [genus]",
+      "        ?Pinus nigra var. maritima [variety]",
+      "          ?Pinus nigra f. nana [form]",
+      "Animalia [kingdom]",
+      "  Pinus alba [species]"
+  );
+
+  private static final List<String> EXPECTED = List.of(
+      "6 SingleBasionym",
+      "7 SynonymChildren",
+      "9 RankOrder",
+      "9 DuplicateAcceptedNames",
+      "11 ProvisionalParent",
+      "13 DuplicateAcceptedNames"
+  );
+
+  private static List<String> lines(List<TreeIssue> issues) {
+    return issues.stream().map(i -> i.line + " " + i.rule).collect(Collectors.toList());
+  }
+
+  @Test
+  public void defaults() throws Exception {
+    List<TreeIssue> issues = TreeRules.<SimpleTreeNode>defaults().check(Tree.simple(new StringReader(TREE)));
+    assertEquals(EXPECTED, lines(issues));
+    assertEquals("line 9 [DuplicateAcceptedNames] Duplicate accepted name Pinus [genus], first on line 3", issues.get(3).toString());
+    assertEquals("Accepted name Pinus alba already has the basionym Pinus blanca on line 5", issues.get(0).message);
+
+    // same issues for parsed trees
+    assertEquals(EXPECTED, lines(TreeRules.<ParsedTreeNode>defaults().check(Tree.parsed(new StringReader(TREE)))));
+  }
+
+  @Test
+  public void streaming() throws Exception {
+    TreeRules.Handler<SimpleTreeNode> handler = TreeRules.<SimpleTreeNode>defaults().handler();
+    Tree.streamSimple(new StringReader(TREE), handler);
+    assertEquals(EXPECTED, lines(handler.issues()));
+
+    Path file = Files.createTempFile("rules", ".txtree");
+    try {
+      Files.write(file, TREE.getBytes(StandardCharsets.UTF_8));
+      assertEquals(handler.issues(), TreeRules.checkSimple(file));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void resources() throws Exception {
+    for (String res : new String[]{"test.txt", "test2.txt", "test3.txt", "synonymy.txtree", "prov.txtree", "extinct.txtree", "infos.txt"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(ClassLoader.getSystemResourceAsStream(res));
+      TreeRules.Handler<SimpleTreeNode> handler = TreeRules.<SimpleTreeNode>defaults().handler();
+      Tree.streamSimple(ClassLoader.getSystemResourceAsStream(res), handler);
+      assertEquals(res, handler.issues(), TreeRules.<SimpleTreeNode>defaults().check(tree));
+    }
+    List<TreeIssue> issues = TreeRules.<SimpleTreeNode>defaults().check(Tree.simple(ClassLoader.getSystemResourceAsStream("test2.txt")));
+    assertEquals(new TreeIssue(8, "DuplicateAcceptedNames",
+        "Duplicate accepted name Acer negundo subsp. mexicanum (DC.) Wesm. [subspecies], first on line 7"), issues.get(0));
+  }
+
+  @Test
+  public void customRule() throws Exception {
+    TreeRules<SimpleTreeNode> rules = new TreeRules<SimpleTreeNode>()
+        .add(() -> new TreeRule<SimpleTreeNode>() {
+          @Override
+          public String name() {
+            return "Extinct";
+          }
+
+          @Override
+          public void check(SimpleTreeNode node, TreeRules.Context<SimpleTreeNode> ctx) {
+            if (!node.extinct && ctx.parents().stream().anyMatch(p -> p.extinct)) {
+              ctx.issue(node, "Extant " + node.name + " below an extinct taxon");
+            }
+          }
+        });
+    String tree = String.join("\n",
+        "Reptilia [class]",
+        "  †Bolosauria [order]",
+        "    Bolosaurus [genus]",
+        "      †Bolosaurus striatus [species]");
+    List<TreeIssue> issues = rules.check(Tree.simple(new StringReader(tree)));
+    assertEquals(List.of(new TreeIssue(3, "Extinct", "Extant Bolosaurus below an extinct taxon")), issues);
+    assertTrue(new TreeRules<SimpleTreeNode>().check(Tree.simple(new StringReader(tree))).isEmpty());
+  }
+}
@@ -1,11 +1,38 @@
 package org.gbif.txtree;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.apache.commons.io.IOUtils;
+import org.gbif.nameparser.api.NameType;
 import org.gbif.nameparser.api.Rank;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -205,6 +232,422 @@ public class TreeTest {
     }
   }
 
+  @Test
+  public void lazyParsed() throws Exception {
+    Tree<LazyParsedTreeNode> tree = Tree.lazyParsed(resource("test2.txt"));
+    Tree<ParsedTreeNode> parsed = Tree.parsed(resource("test2.txt"));
+    assertEquals(parsed.size(), tree.size());
+
+    StringWriter buffer = new StringWriter();
+    tree.print(buffer);
+    assertEquals(IOUtils.toString(resource("test2-no-comments.txt"), "UTF8").trim(), buffer.toString().trim());
+
+    var it = parsed.iterator();
+    for (LazyParsedTreeNode n : tree) {
+      ParsedTreeNode pn = it.next();
+      assertFalse(n.isParsed());
+      assertEquals(pn.rank, n.rank);
+      assertNotNull(n.getParsedName());
+      assertTrue(n.isParsed());
+      assertSame(n.getParsedName(), n.getParsedName());
+      assertEquals(pn.parsedName.canonicalNameComplete(), n.getParsedName().canonicalNameComplete());
+    }
+  }
+
+  @Test
+  public void compact() throws Exception {
+    for (String res : new String[]{"test.txt", "test2.txt", "test3.txt", "infos.txt", "synonymy.txtree", "homotypic.txtree", "extinct.txtree", "prov.txtree", "badranks.txtree"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(resource(res));
+      CompactTree compact = Tree.compact(resource(res));
+      assertEquals(res, tree.size(), compact.size());
+
+      StringWriter expected = new StringWriter();
+      tree.print(expected);
+      StringWriter buffer = new StringWriter();
+      compact.print(buffer);
+      assertEquals(res, expected.toString(), buffer.toString());
+    }
+
+    CompactTree tree = Tree.compact(resource("test2.txt"));
+    for (CompactTree.Node n : tree) {
+      assertNotNull(n.name());
+      for (CompactTree.Node c : n.children()) {
+        assertEquals(n, c.parent());
+        assertFalse(c.synonym());
+      }
+      for (CompactTree.Node s : n.synonyms()) {
+        assertEquals(n, s.parent());
+        assertTrue(s.synonym());
+      }
+    }
+    CompactTree.Node first = tree.getRoot().get(0);
+    assertNull(first.parent());
+    assertEquals(1, first.id());
+    assertEquals("kingdom", first.rank());
+  }
+
+  @Test
+  public void compactDeep() throws Exception {
+    // printing is iterative and needs no stack per level
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      sb.append("  ".repeat(i)).append("Node ").append(i).append(i % 100 == 0 ? " {ID=" + i + "}" : "").append('\n');
+    }
+    CompactTree tree = Tree.compact(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    StringBuilder printed = new StringBuilder();
+    Throwable[] error = new Throwable[1];
+    Thread t = new Thread(null, () -> {
+      try {
+        tree.print(printed);
+      } catch (Exception | StackOverflowError e) {
+        error[0] = e;
+      }
+    }, "compact-print", 64 * 1024);
+    t.start();
+    t.join();
+    assertNull(error[0]);
+    assertEquals(sb.toString(), printed.toString());
+    assertArrayEquals(new String[]{"2900"}, tree.get(2900).infos().get("ID"));
+    assertTrue(tree.get(2901).infos().isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void compactBadlyIndented() throws Exception {
+    Tree.compact(resource("badly-indented.txt"));
+  }
+
+  @Test
+  public void index() throws Exception {
+    Tree<SimpleTreeNode> tree = Tree.simple(resource("test2.txt"));
+    TreeIndex<SimpleTreeNode> idx = tree.index();
+    assertSame(idx, tree.index());
+    assertEquals(tree.size(), idx.size());
+
+    SimpleTreeNode plantae = idx.byId(1);
+    assertEquals("Plantae", plantae.name);
+    assertNull(plantae.getParent());
+    assertTrue(plantae.classification().isEmpty());
+    assertNull(idx.byId(-1));
+    assertNull(idx.byId(100000));
+
+    assertEquals(2, idx.byName("Acer negundo subsp. mexicanum (DC.) Wesm.").size());
+    assertEquals(1, idx.byName("Acer").size());
+    assertTrue(idx.byName("Acer negundo var.").isEmpty());
+    SimpleTreeNode syn = idx.byName("Negundo aceroides Torr.").get(0);
+    assertEquals(11, syn.getId());
+    assertSame(syn, idx.byId(11));
+    assertEquals("Acer negundo subsp. negundo", syn.getParent().name);
+
+    List<String> names = new ArrayList<>();
+    for (SimpleTreeNode n : syn.classification()) {
+      names.add(n.name);
+    }
+    assertEquals(List.of("Plantae", "Magnoliopsida", "Sapindales", "Sapindaceae", "Acer", "Acer negundo", "Acer negundo subsp. negundo"), names);
+
+    // all nodes have consistent parent links
+    for (SimpleTreeNode n : tree) {
+      for (SimpleTreeNode c : n.children) {
+        assertSame(n, c.getParent());
+        assertSame(c, idx.byId(c.getId()));
+      }
+      for (SimpleTreeNode s : n.synonyms) {
+        assertSame(n, s.getParent());
+      }
+    }
+
+    // snapshots restore parent links too
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeSnapshot(out);
+    Tree<SimpleTreeNode> tree2 = Tree.simpleSnapshot(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(7, tree2.index().byId(11).classification().size());
+
+    try {
+      idx.byCanonicalName("Plantae");
+      fail("Simple trees have no canonical names");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    Tree<ParsedTreeNode> ptree = Tree.parsed(resource("test2.txt"));
+    assertEquals(1, ptree.index().byCanonicalName("Plantae").size());
+    assertEquals(2L, ptree.index().byCanonicalName("Magnoliopsida").get(0).getId());
+    assertTrue(ptree.index().byCanonicalName("Unknown").isEmpty());
+  }
+
+  @Test
+  public void stream() throws Exception {
+    for (String res : new String[]{"test.txt", "test2.txt", "test3.txt", "synonymy.txtree", "homotypic.txtree", "infos.txt"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(resource(res));
+      List<SimpleTreeNode> expected = new ArrayList<>();
+      tree.forEach(expected::add);
+
+      assertEquals(res, expected, tree.stream().collect(Collectors.toList()));
+      assertEquals(res, expected, tree.parallelStream().collect(Collectors.toList()));
+      List<SimpleTreeNode> ordered = Collections.synchronizedList(new ArrayList<>());
+      tree.parallelStream().forEachOrdered(ordered::add);
+      assertEquals(res, expected, ordered);
+      assertEquals(res, expected.size(), tree.parallelStream().count());
+    }
+
+    // a single root is split into subtrees
+    Tree<SimpleTreeNode> tree = Tree.simple(resource("test2.txt"));
+    Spliterator<SimpleTreeNode> s1 = tree.spliterator();
+    Spliterator<SimpleTreeNode> s2 = s1.trySplit();
+    assertNotNull(s2);
+    List<SimpleTreeNode> nodes = new ArrayList<>();
+    s2.forEachRemaining(nodes::add);
+    assertEquals("Plantae", nodes.get(0).name);
+    s1.forEachRemaining(nodes::add);
+    List<SimpleTreeNode> expected = new ArrayList<>();
+    tree.forEach(expected::add);
+    assertEquals(expected, nodes);
+  }
+
+  @Test
+  public void cursor() throws Exception {
+    for (String res : new String[]{"test.txt", "test2.txt", "synonymy.txtree", "homotypic.txtree", "infos.txt"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(resource(res));
+      List<SimpleTreeNode> expected = new ArrayList<>();
+      for (SimpleTreeNode r : tree.getRoot()) {
+        addRecursive(r, expected);
+      }
+      assertEquals(res, tree.size(), expected.size());
+
+      TreeCursor<SimpleTreeNode> c = tree.cursor();
+      int idx = 0;
+      while (c.next()) {
+        SimpleTreeNode n = c.node();
+        assertSame(expected.get(idx++), n);
+        assertSame(n.getParent(), c.parent());
+        assertEquals(n.classification(), c.classification());
+        assertEquals(c.classification().size(), c.depth());
+        assertEquals(c.parent() != null && c.parent().synonyms.contains(n), c.isSynonym());
+      }
+      assertEquals(expected.size(), idx);
+      assertFalse(c.next());
+    }
+  }
+
+  private static void addRecursive(SimpleTreeNode n, List<SimpleTreeNode> nodes) {
+    nodes.add(n);
+    n.synonyms.forEach(s -> addRecursive(s, nodes));
+    n.children.forEach(c -> addRecursive(c, nodes));
+  }
+
+  @Test
+  public void sharedStrings() throws Exception {
+    Tree<SimpleTreeNode> tree = Tree.simple(new StringReader(String.join("\n",
+        "Abies [genus] {ENV=marine,terrestrial REF=r1}",
+        "  Abies alba [species] {ENV=terrestrial REF=r2}",
+        "  Abies nigra [species]",
+        "  Abies rubra [species] {}"
+    )));
+    SimpleTreeNode alba = tree.getRoot().get(0).children.get(0);
+    SimpleTreeNode nigra = tree.getRoot().get(0).children.get(1);
+    SimpleTreeNode rubra = tree.getRoot().get(0).children.get(2);
+    assertSame(alba.rank, nigra.rank);
+    String key = tree.getRoot().get(0).infos.keySet().iterator().next();
+    assertSame(key, alba.infos.keySet().iterator().next());
+    assertSame(tree.getRoot().get(0).infos.get("ENV")[1], alba.infos.get("ENV")[0]);
+    assertArrayEquals(new String[]{"r2"}, alba.infos.get("REF"));
+    assertTrue(nigra.infos.isEmpty());
+    assertSame(nigra.infos, rubra.infos);
+  }
+
+  @Test
+  public void snapshot() throws Exception {
+    for (String res : new String[]{"test2.txt", "test3.txt", "test4comments.txt", "synonymy.txtree", "homotypic.txtree", "extinct.txtree", "prov.txtree"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(resource(res));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      tree.writeSnapshot(out);
+      Tree<SimpleTreeNode> tree2 = Tree.simpleSnapshot(new ByteArrayInputStream(out.toByteArray()));
+      assertEquals(res, tree.size(), tree2.size());
+      assertEquals(res, print(tree), print(tree2));
+
+      var it = tree2.iterator();
+      for (SimpleTreeNode n : tree) {
+        SimpleTreeNode n2 = it.next();
+        assertEquals(n.getId(), n2.getId());
+        assertEquals(n.comment, n2.comment);
+        assertEquals(n.infos.keySet(), n2.infos.keySet());
+      }
+    }
+
+    String extra = IOUtils.toString(resource("test2.txt"), "UTF8")
+        + "\nAbies cf. alba Mill. [species]\nAbies nigra L. in Sp. Pl. [species]\nAbies rubra [sic] [species]\n";
+    Tree<ParsedTreeNode> tree = Tree.parsed(new StringReader(extra));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeSnapshot(out);
+    Tree<ParsedTreeNode> tree2 = Tree.parsedSnapshot(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(print(tree), print(tree2));
+    var it = tree2.iterator();
+    for (ParsedTreeNode n : tree) {
+      ParsedTreeNode n2 = it.next();
+      assertEquals(n.rank, n2.rank);
+      assertSameBean(n.name, n.parsedName, n2.parsedName);
+    }
+    // parsed snapshots can be read as simple trees
+    assertEquals(print(tree), print(Tree.simpleSnapshot(new ByteArrayInputStream(out.toByteArray()))));
+  }
+
+  @Test
+  public void snapshotHandBuilt() throws Exception {
+    // the size of hand built trees is not maintained, snapshots count the nodes they write
+    Tree<SimpleTreeNode> tree = new Tree<>();
+    SimpleTreeNode n = new SimpleTreeNode(1, "Abies", "genus");
+    tree.getRoot().add(n);
+    n.synonyms.add(new SimpleTreeNode(2, "Picea", "genus"));
+    for (int i = 3; i <= 20_000; i++) {
+      SimpleTreeNode c = new SimpleTreeNode(i, "Node " + i, null);
+      n.children.add(c);
+      n = c;
+    }
+    n.synonyms.add(new SimpleTreeNode(20_001, "Last", null));
+    // reading and writing is iterative and needs no stack per level
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeSnapshot(out);
+    Tree<SimpleTreeNode> tree2 = Tree.simpleSnapshot(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(20_001, tree2.size());
+    var it = tree2.iterator();
+    for (SimpleTreeNode x : tree) {
+      SimpleTreeNode x2 = it.next();
+      assertEquals(x.getId(), x2.getId());
+      assertEquals(x.name, x2.name);
+      assertEquals(x.synonyms.size(), x2.synonyms.size());
+    }
+    assertFalse(it.hasNext());
+    assertEquals("Picea", tree2.getRoot().get(0).synonyms.get(0).name);
+  }
+
+  /**
+   * Compares the results of all getters of two name parser beans, recursing into nested beans.
+   */
+  private static void assertSameBean(String msg, Object a, Object b) throws Exception {
+    if (a == null || b == null || a.getClass().isEnum() || !a.getClass().getName().startsWith("org.gbif.nameparser.")) {
+      assertEquals(msg, a, b);
+      return;
+    }
+    for (Method m : a.getClass().getMethods()) {
+      if (m.getParameterCount() == 0 && m.getDeclaringClass() != Object.class
+          && (m.getName().startsWith("get") || m.getName().startsWith("is"))) {
+        assertSameBean(msg + " " + m.getName(), m.invoke(a), m.invoke(b));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void corruptSnapshotSize() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(new byte[]{'T', 'X', 'T', 'R', 'E', 'E'});
+    data.writeInt(TreeSnapshot.VERSION);
+    data.writeByte(1);
+    // one root with id 1, no flags and a name claiming to be 2GB long
+    data.write(new byte[]{1, 1, 0, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'A', 'b'});
+    Tree.simpleSnapshot(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test(expected = IOException.class)
+  public void corruptSnapshot() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Tree.simple(resource("test2.txt")).writeSnapshot(out);
+    byte[] bytes = out.toByteArray();
+    bytes[bytes.length / 2] ^= 0x10;
+    Tree.simpleSnapshot(new ByteArrayInputStream(bytes));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void simpleSnapshotAsParsed() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Tree.simple(resource("test2.txt")).writeSnapshot(out);
+    Tree.parsedSnapshot(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  private static String print(Tree<?> tree) throws IOException {
+    StringWriter buffer = new StringWriter();
+    tree.print(buffer);
+    return buffer.toString();
+  }
+
+  @Test
+  public void writer() throws Exception {
+    for (String res : new String[]{"test2.txt", "test3.txt", "infos.txt", "synonymy.txtree", "homotypic.txtree", "extinct.txtree", "prov.txtree"}) {
+      Tree<SimpleTreeNode> tree = Tree.simple(resource(res));
+      byte[] expected = print(tree).getBytes(StandardCharsets.UTF_8);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      tree.print(out);
+      assertArrayEquals(res, expected, out.toByteArray());
+
+      out = new ByteArrayOutputStream();
+      TreeWriter w = new TreeWriter(Channels.newChannel(out));
+      w.write(tree);
+      w.flush();
+      assertArrayEquals(res, expected, out.toByteArray());
+
+      // print streams write UTF8 regardless of their own charset
+      out = new ByteArrayOutputStream();
+      tree.print(new PrintStream(out, false, StandardCharsets.ISO_8859_1));
+      assertArrayEquals(res, expected, out.toByteArray());
+    }
+
+    // surrogates and deep trees that would overflow the stack of recursive printing
+    Tree<SimpleTreeNode> tree = new Tree<>();
+    SimpleTreeNode n = new SimpleTreeNode(1, "Abies \uD835\uDD0A \uD835 alba \uDD0A", "species");
+    tree.getRoot().add(n);
+    for (int i = 2; i <= 20_000; i++) {
+      SimpleTreeNode c = new SimpleTreeNode(i, "Node " + i, null);
+      n.children.add(c);
+      n = c;
+    }
+    ByteArrayOutputStream head = new ByteArrayOutputStream();
+    long[] bytes = new long[1];
+    tree.print(new OutputStream() {
+      @Override
+      public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        if (bytes[0] == 0) {
+          head.write(b, off, 64);
+        }
+        bytes[0] += len;
+      }
+    });
+    assertTrue(head.toString(StandardCharsets.UTF_8).startsWith("Abies \uD835\uDD0A ? alba ? [species]\n  Node 2\n    Node 3\n"));
+    // indentation of all levels plus the lines
+    long expected = "Abies \uD835\uDD0A ? alba ? [species]\n".getBytes(StandardCharsets.UTF_8).length;
+    for (int i = 2; i <= 20_000; i++) {
+      expected += 2L * (i - 1) + ("Node " + i + "\n").length();
+    }
+    assertEquals(expected, bytes[0]);
+
+    // printing to an appendable is iterative too
+    long[] chars = new long[1];
+    tree.print(new Appendable() {
+      @Override
+      public Appendable append(CharSequence csq) {
+        chars[0] += csq.length();
+        return this;
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end) {
+        chars[0] += end - start;
+        return this;
+      }
+
+      @Override
+      public Appendable append(char c) {
+        chars[0]++;
+        return this;
+      }
+    });
+    String first = "Abies \uD835\uDD0A \uD835 alba \uDD0A [species]\n";
+    assertEquals(expected - first.getBytes(StandardCharsets.UTF_8).length + first.length(), chars[0]);
+  }
+
   @Test
   public void testVerify() throws Exception {
     assertFalse(Tree.verify(resource("badly-indented.txt")).valid);
@@ -220,6 +663,31 @@ public class TreeTest {
     assertFalse(Tree.verify(resource("dwca.txt")).valid);
   }
 
+  @Test
+  public void verifyAllErrors() throws Exception {
+    Tree.VerificationResult res = Tree.verify(resource("badtree.txt"));
+    assertFalse(res.valid);
+    assertEquals(2, res.lines);
+    assertEquals(1, res.errors.size());
+
+    res = Tree.verify(resource("badtree.txt"), 10);
+    assertFalse(res.valid);
+    assertEquals(2, res.lines);
+    assertEquals(2, res.errors.size());
+    assertEquals(2, res.errors.get(0).line);
+    assertEquals(5, res.errors.get(1).line);
+    assertEquals(res.message, res.errors.get(0).message);
+
+    res = Tree.verify(new StringReader("Aa\n   Bb\n  Cc\n    Dd\n  \tEe"), 10);
+    assertEquals(2, res.errors.size());
+    assertEquals(2, res.errors.get(0).line);
+    assertEquals(5, res.errors.get(1).line);
+
+    res = Tree.verify(resource("test2.txt"), 10);
+    assertTrue(res.valid);
+    assertTrue(res.errors.isEmpty());
+  }
+
   @Test
   public void infos() throws Exception {
     var tree = Tree.simple(resource("test3.txt"));
@@ -281,6 +749,379 @@ public class TreeTest {
     assertTrue(abies_alba_found);
   }
 
+  @Test
+  public void streaming() throws Exception {
+    var tree = Tree.simple(resource("test2.txt"));
+    List<String> names = new ArrayList<>();
+    for (var n : tree) {
+      names.add(n.name);
+    }
+
+    List<String> streamed = new ArrayList<>();
+    AtomicInteger synonyms = new AtomicInteger();
+    AtomicInteger open = new AtomicInteger();
+    AtomicInteger maxDepth = new AtomicInteger();
+    Tree.streamSimple(resource("test2.txt"), new TreeHandler<>() {
+      @Override
+      public void startNode(SimpleTreeNode node, List<SimpleTreeNode> parents) {
+        assertTrue(node.children.isEmpty());
+        assertEquals(open.getAndIncrement(), parents.size());
+        maxDepth.set(Math.max(maxDepth.get(), parents.size()));
+        streamed.add(node.name);
+      }
+
+      @Override
+      public void synonym(SimpleTreeNode synonym, List<SimpleTreeNode> parents) {
+        assertEquals(open.getAndIncrement(), parents.size());
+        assertFalse(parents.isEmpty());
+        synonyms.incrementAndGet();
+        streamed.add(synonym.name);
+      }
+
+      @Override
+      public void endNode(SimpleTreeNode node) {
+        open.decrementAndGet();
+      }
+    });
+    assertEquals(0, open.get());
+    assertEquals(9, synonyms.get());
+    assertEquals(6, maxDepth.get());
+    assertEquals(tree.size(), streamed.size());
+    // the tree iterates synonyms first, streaming follows the line order
+    assertEquals(new HashSet<>(names), new HashSet<>(streamed));
+  }
+
+  @Test
+  public void parallel() throws Exception {
+    String txt = IOUtils.toString(resource("test2.txt"), "UTF8");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      sb.append(txt);
+      sb.append("\n");
+    }
+    ParseOptions options = new ParseOptions().parallelism(4);
+    options.chunkLines = 7;
+
+    var seq = Tree.simple(new StringReader(sb.toString()));
+    var par = Tree.simple(new StringReader(sb.toString()), options);
+    assertEquals(seq.size(), par.size());
+    assertEquals(seq.getRoot().size(), par.getRoot().size());
+
+    StringWriter b1 = new StringWriter();
+    seq.print(b1);
+    StringWriter b2 = new StringWriter();
+    par.print(b2);
+    assertEquals(b1.toString(), b2.toString());
+
+    var it = par.iterator();
+    for (var n : seq) {
+      var n2 = it.next();
+      assertEquals(n.getId(), n2.getId());
+      assertEquals(n.name, n2.name);
+    }
+    assertFalse(it.hasNext());
+
+    // errors are reported for the first bad line
+    sb.append("Abies\n   Abies alba\n");
+    sb.append(txt);
+    try {
+      Tree.simple(new StringReader(sb.toString()), options);
+      fail("Expected a parsing error");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Failed to parse Tree on line 1252:    Abies alba", e.getMessage());
+    }
+  }
+
+  @Test
+  public void parsedWithNameParserThreads() throws Exception {
+    String txt = IOUtils.toString(resource("test2.txt"), "UTF8");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      sb.append(txt);
+    }
+    var seq = Tree.parsed(new StringReader(sb.toString()));
+    var par = Tree.parsed(new StringReader(sb.toString()), new ParseOptions().nameParserThreads(3).nameCacheSize(100));
+    assertEquals(seq.size(), par.size());
+
+    StringWriter b1 = new StringWriter();
+    seq.print(b1);
+    StringWriter b2 = new StringWriter();
+    par.print(b2);
+    assertEquals(b1.toString(), b2.toString());
+
+    var it = par.iterator();
+    for (var n : seq) {
+      var n2 = it.next();
+      assertEquals(n.getId(), n2.getId());
+      assertEquals(n.rank, n2.rank);
+      assertEquals(n.parsedName.canonicalNameComplete(), n2.parsedName.canonicalNameComplete());
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void metrics() throws Exception {
+    String txt = IOUtils.toString(resource("infos.txt"), "UTF8") + "\n\"Incertae sedis\" [genus]\n";
+    byte[] bytes = txt.getBytes(StandardCharsets.UTF_8);
+    var expected = Tree.simple(new StringReader(txt));
+    long synonyms = expected.stream().mapToLong(n -> n.synonyms.size()).sum();
+
+    List<ParseOptions> options = List.of(new ParseOptions(), new ParseOptions().nameParserThreads(2), new ParseOptions().parallelism(2));
+    options.get(2).chunkLines = 3;
+    for (ParseOptions opt : options) {
+      ParseMetrics m = new ParseMetrics();
+      var tree = Tree.parsed(new ByteArrayInputStream(bytes), opt.metrics(m));
+      assertEquals(expected.size(), tree.size());
+      assertEquals(txt.chars().filter(c -> c == '\n').count(), m.getLines());
+      assertEquals(txt.length(), m.getCharacters());
+      assertEquals(bytes.length, m.getBytes());
+      assertEquals(expected.size(), m.getNodes());
+      assertEquals(synonyms, m.getSynonyms());
+      assertEquals(4, m.getInfos());
+      assertEquals(4L, (long) m.getRanks().get("species"));
+      assertEquals(1L, (long) m.getUnparsable().get(NameType.NO_NAME));
+      assertEquals(1, m.getUnparsableCount());
+      assertTrue(m.getElapsedNanos() > 0);
+      assertTrue(m.getNanos(ParseMetrics.Phase.NAMES) > 0);
+      assertTrue(m.getNanos(ParseMetrics.Phase.INFOS) > 0);
+      System.out.println(m);
+    }
+  }
+
+  @Test
+  public void metricsEvent() throws Exception {
+    Path file = Files.createTempFile("txtree", ".jfr");
+    try (Recording rec = new Recording()) {
+      rec.enable("org.gbif.txtree.Parse");
+      rec.start();
+      Tree.simple(resource("infos.txt"), new ParseOptions().metrics(new ParseMetrics()));
+      rec.stop();
+      rec.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      assertEquals(1, events.size());
+      assertEquals(Tree.simple(resource("infos.txt")).size(), events.get(0).getLong("nodes"));
+      assertEquals(4, events.get(0).getLong("infos"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void freeze() throws Exception {
+    for (String res : new String[]{"test2.txt", "synonymy.txtree", "infos.txt"}) {
+      var tree = Tree.simple(resource(res));
+      var frozen = tree.freeze();
+      assertEquals(tree.size(), frozen.size());
+      // unlike the tree iterator all nodes below synonyms are included, just as with the cursor
+      List<SimpleTreeNode> all = new ArrayList<>();
+      TreeCursor<SimpleTreeNode> c = tree.cursor();
+      while (c.next()) {
+        all.add(c.node());
+      }
+      assertEquals(all, frozen.stream().collect(Collectors.toList()));
+      assertEquals(all, frozen.parallelStream().collect(Collectors.toList()));
+      List<SimpleTreeNode> iterated = new ArrayList<>();
+      frozen.forEach(iterated::add);
+      assertEquals(all, iterated);
+      assertEquals(tree.getRoot(), frozen.getRoot());
+
+      c = tree.cursor();
+      while (c.next()) {
+        int idx = frozen.indexOf(c.node().getId());
+        assertSame(c.node(), frozen.node(idx));
+        assertEquals(c.depth(), frozen.depth(idx));
+        assertEquals(c.isSynonym(), frozen.isSynonym(idx));
+        assertEquals(c.classification(), frozen.classification(idx));
+        assertEquals(c.node().children, frozen.children(idx));
+        assertEquals(c.node().synonyms, frozen.synonyms(idx));
+        assertEquals(c.node().infos == null ? Map.of() : c.node().infos, frozen.infos(idx));
+        assertEquals(c.parent() == null ? -1 : frozen.indexOf(c.parent().getId()), frozen.parent(idx));
+      }
+    }
+
+    var tree = Tree.simple(resource("test2.txt"));
+    var frozen = tree.freeze();
+    try {
+      frozen.getRoot().add(tree.getRoot().get(0));
+      fail("Frozen trees are immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      frozen.infos(0).put("ID", new String[]{"1"});
+      fail("Frozen infos are immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    // modifying the source tree does not change the frozen one
+    SimpleTreeNode first = tree.getRoot().get(0);
+    int idx = frozen.indexOf(first.getId());
+    int children = frozen.children(idx).size();
+    first.children.clear();
+    assertEquals(children, frozen.children(idx).size());
+  }
+
+  @Test
+  public void gzip() throws Exception {
+    String txt = IOUtils.toString(resource("test2.txt"), "UTF8");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      sb.append(txt);
+      sb.append("\n");
+    }
+    var expected = Tree.simple(new StringReader(sb.toString()));
+    String printed = print(expected);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    expected.print(out, true);
+    byte[] gz = out.toByteArray();
+    assertTrue(gz.length < printed.length() / 10);
+    assertEquals(printed, print(Tree.simple(new ByteArrayInputStream(gz))));
+    assertEquals(printed, print(Tree.parsed(new ByteArrayInputStream(gz), new ParseOptions().nameParserThreads(2))));
+    assertEquals(printed, print(Tree.simple(new ByteArrayInputStream(gz), new ParseOptions().parallelism(2))));
+    assertEquals(expected.size(), Tree.compact(new ByteArrayInputStream(gz)).size());
+    assertTrue(Tree.verify(new ByteArrayInputStream(gz)).valid);
+
+    // the gzip stream is closed, but not the caller's stream
+    boolean[] closed = new boolean[1];
+    out = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    expected.print(out, true);
+    assertFalse(closed[0]);
+    assertArrayEquals(gz, out.toByteArray());
+
+    File file = File.createTempFile("txtree", ".txtree.gz");
+    try {
+      expected.print(file);
+      assertTrue(LineInput.isGzip(file.toPath()));
+      var tree = Tree.simple(file.toPath());
+      assertEquals(printed, print(tree));
+      assertEquals(expected.size(), tree.size());
+      AtomicInteger count = new AtomicInteger();
+      Tree.streamSimple(file.toPath(), new TreeHandler<>() {
+        @Override
+        public void startNode(SimpleTreeNode node, List<SimpleTreeNode> parents) {
+          count.incrementAndGet();
+        }
+
+        @Override
+        public void synonym(SimpleTreeNode synonym, List<SimpleTreeNode> parents) {
+          count.incrementAndGet();
+        }
+      });
+      assertEquals(expected.size(), count.get());
+    } finally {
+      file.delete();
+    }
+
+    // truncated streams fail
+    try {
+      Tree.simple(new ByteArrayInputStream(Arrays.copyOf(gz, gz.length / 2)));
+      fail("Expected a truncated stream to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    // bad lines are reported with their line number
+    out = new ByteArrayOutputStream();
+    try (var gout = new GZIPOutputStream(out)) {
+      gout.write((txt + "\nAbies\n   Abies alba\n").getBytes(StandardCharsets.UTF_8));
+    }
+    try {
+      Tree.simple(new ByteArrayInputStream(out.toByteArray()));
+      fail("Expected a parsing error");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to parse Tree on line "));
+    }
+  }
+
+  @Test
+  public void gzipClose() throws Exception {
+    // more lines than the pipeline buffers, so the inflater is still busy when the lines are closed
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (var gout = new GZIPOutputStream(out)) {
+      for (int i = 0; i < 500_000; i++) {
+        gout.write(("Node " + i + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    AtomicInteger reads = new AtomicInteger();
+    InputStream stream = new ByteArrayInputStream(out.toByteArray()) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        reads.incrementAndGet();
+        return super.read(b, off, len);
+      }
+    };
+    LineInput lines = LineInput.open(stream);
+    assertEquals("Node 0", lines.next().toString());
+    lines.close();
+    // the caller's stream is not read anymore once closed
+    int count = reads.get();
+    Thread.sleep(100);
+    assertEquals(count, reads.get());
+    assertTrue(stream.available() > 0);
+  }
+
+  @Test
+  public void lazyInfos() throws Exception {
+    String txt = IOUtils.toString(resource("infos.txt"), "UTF8") + "\nAbies {}\nPinus {no infos}\nPicea {A=b,,,,c,,,d  B=}\n"
+        + "Larix {abc=def}\nTsuga {=x}\nCedrus {A=}\n";
+    var eager = Tree.simple(new StringReader(txt));
+    for (ParseOptions opt : List.of(new ParseOptions(), new ParseOptions().parallelism(2), new ParseOptions().nameParserThreads(2))) {
+      opt.chunkLines = 3;
+      opt.lazyInfos(true);
+      var lazy = opt.getNameParserThreads() > 1
+          ? Tree.parsed(new StringReader(txt), opt)
+          : Tree.simple(new StringReader(txt), opt);
+      assertEquals(eager.size(), lazy.size());
+
+      var it = lazy.iterator();
+      for (var n : eager) {
+        var n2 = it.next();
+        assertEquals(n.comment, n2.comment);
+        if (n2.infos instanceof LazyInfos) {
+          assertFalse(((LazyInfos) n2.infos).isDecoded());
+          // only created for infos that decode to something
+          assertFalse(n.infos.isEmpty());
+        }
+        assertEquals(n.infos.size(), n2.infos.size());
+        assertEquals(new ArrayList<>(n.infos.keySet()), new ArrayList<>(n2.infos.keySet()));
+        for (var e : n.infos.entrySet()) {
+          assertArrayEquals(e.getValue(), n2.infos.get(e.getKey()));
+        }
+      }
+      assertEquals(print(eager), print(lazy));
+    }
+  }
+
+  @Test
+  public void lazyInfosMetrics() throws Exception {
+    String txt = "Abies {ID=1 REF=a}\n  Abies alba {ID=2}\n  Abies nigra\n  Abies rubra {ref=x}\n  Abies lasiocarpa {=x}\n";
+    for (ParseOptions opt : List.of(new ParseOptions(), new ParseOptions().nameParserThreads(2))) {
+      ParseMetrics m = new ParseMetrics();
+      opt.lazyInfos(true).metrics(m);
+      var tree = opt.getNameParserThreads() > 1
+          ? Tree.parsed(new StringReader(txt), opt)
+          : Tree.simple(new StringReader(txt), opt);
+      assertEquals(2, m.getInfos());
+      int lazy = 0;
+      for (var n : tree) {
+        if (n.infos instanceof LazyInfos) {
+          assertFalse(((LazyInfos) n.infos).isDecoded());
+          lazy++;
+        }
+      }
+      assertEquals(2, lazy);
+    }
+    // the same count as for eagerly parsed infos
+    ParseMetrics m = new ParseMetrics();
+    Tree.simple(new StringReader(txt), new ParseOptions().metrics(m));
+    assertEquals(2, m.getInfos());
+  }
+
   static InputStream resource(String resourceName) {
     return ClassLoader.getSystemResourceAsStream(resourceName);
   }
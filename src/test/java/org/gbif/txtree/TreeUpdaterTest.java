@@ -0,0 +1,185 @@
+package org.gbif.txtree;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares incrementally updated trees with trees parsed from scratch after random edits.
+ */
+public class TreeUpdaterTest {
+
+  @Test
+  public void singleEdits() throws Exception {
+    List<String> lines = lines("test2.txt");
+    Tree<SimpleTreeNode> tree = parse(lines);
+
+    // change a leaf in place
+    lines.set(10, "              =Negundo aceroides Torrey [species]");
+    tree.update(lines, TreeEdit.changed(11));
+    assertSame(tree, lines);
+    assertEquals("Negundo aceroides Torrey", tree.index().byId(11).name);
+
+    // insert a new child with a nested synonym
+    lines.add(5, "          Acer alba [species]");
+    lines.add(6, "            =Acer blanca");
+    tree.update(lines, new TreeEdit(6, 0, 2));
+    assertSame(tree, lines);
+    assertEquals("Acer", tree.index().byId(6).getParent().name);
+    assertEquals("Acer alba", tree.index().byId(7).getParent().name);
+
+    // remove them again
+    lines.remove(5);
+    lines.remove(5);
+    tree.update(lines, new TreeEdit(6, 2, 0));
+    assertSame(tree, lines);
+
+    // new root at the end
+    lines.add("Animalia [kingdom]");
+    tree.update(lines, new TreeEdit(lines.size(), 0, 1));
+    assertSame(tree, lines);
+
+    // a bad edit leaves the tree untouched
+    String before = print(tree);
+    List<String> bad = new ArrayList<>(lines);
+    bad.set(4, "            Acer [genus]");
+    try {
+      tree.update(bad, TreeEdit.changed(5));
+      fail("Bad indentation expected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(before, print(tree));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void overlappingEdits() throws Exception {
+    List<String> lines = lines("test2.txt");
+    Tree<SimpleTreeNode> tree = parse(lines);
+    tree.update(lines, List.of(new TreeEdit(3, 2, 2), new TreeEdit(4, 1, 1)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void unparsedTree() throws Exception {
+    new Tree<SimpleTreeNode>().update(new ArrayList<>(), TreeEdit.changed(1));
+  }
+
+  @Test
+  public void randomEdits() throws Exception {
+    Random rnd = new Random(7);
+    for (String res : new String[]{"test2.txt", "test3.txt", "synonymy.txtree", "homotypic.txtree", "infos.txt"}) {
+      List<String> lines = lines(res);
+      Tree<SimpleTreeNode> tree = parse(lines);
+      for (int i = 0; i < 300; i++) {
+        if (lines.size() < 5) {
+          // start over once too many lines got removed
+          lines = lines(res);
+          tree = parse(lines);
+        }
+        List<String> edited = new ArrayList<>(lines);
+        List<TreeEdit> edits = new ArrayList<>();
+        // edits are generated bottom up so earlier line numbers stay valid
+        int limit = edited.size() + 1;
+        int num = 1 + rnd.nextInt(3);
+        for (int e = 0; e < num && limit > 1; e++) {
+          int line = 1 + rnd.nextInt(limit);
+          int removed = Math.min(rnd.nextInt(3), limit - line);
+          int added = rnd.nextInt(4);
+          for (int r = 0; r < removed; r++) {
+            edited.remove(line - 1);
+          }
+          for (int a = 0; a < added; a++) {
+            edited.add(line - 1, randomLine(rnd, lines));
+          }
+          edits.add(new TreeEdit(line, removed, added));
+          limit = line - 1;
+        }
+
+        Tree<SimpleTreeNode> expected;
+        try {
+          expected = parse(edited);
+        } catch (IllegalArgumentException e) {
+          continue;
+        }
+        tree.update(edited, edits);
+        assertSame(expected, tree, res + " " + edits);
+        lines = edited;
+      }
+    }
+  }
+
+  @Test
+  public void lazyIds() throws Exception {
+    List<String> lines = new LinkedList<>();
+    for (int i = 0; i < 2000; i++) {
+      lines.add("Genus" + i + " [genus]");
+      lines.add("  Genus" + i + " alba [species]");
+    }
+    // chunks parsed in parallel are attached to the same tree
+    ParseOptions options = new ParseOptions().parallelism(2);
+    options.chunkLines = 100;
+    Tree<SimpleTreeNode> tree = Tree.simple(new StringReader(String.join("\n", lines)), options);
+    SimpleTreeNode last = tree.getRoot().get(1999).children.get(0);
+    assertEquals(4000, last.getId());
+
+    lines.add(0, "Animalia [kingdom]");
+    lines.add(1, "Plantae [kingdom]");
+    tree.update(lines, new TreeEdit(1, 0, 2));
+    lines.remove(3);
+    tree.update(lines, new TreeEdit(4, 1, 0));
+    // the public field keeps the parsed line
+    assertEquals(4000, last.id);
+    assertEquals(4001, last.getId());
+    assertSame(tree, lines);
+  }
+
+  private static String randomLine(Random rnd, List<String> lines) {
+    String line = lines.get(rnd.nextInt(lines.size())).trim();
+    return " ".repeat(2 * rnd.nextInt(8)) + (line.isEmpty() ? "Abies alba" : line);
+  }
+
+  private static void assertSame(Tree<SimpleTreeNode> tree, List<String> lines) throws Exception {
+    assertSame(parse(lines), tree, "");
+  }
+
+  private static void assertSame(Tree<SimpleTreeNode> expected, Tree<SimpleTreeNode> tree, String msg) throws Exception {
+    assertEquals(msg, expected.size(), tree.size());
+    assertEquals(msg, print(expected), print(tree));
+    Iterator<SimpleTreeNode> it = tree.iterator();
+    for (SimpleTreeNode n : expected) {
+      SimpleTreeNode n2 = it.next();
+      assertEquals(msg, n.getId(), n2.getId());
+      assertEquals(msg, n.comment, n2.comment);
+      if (n.getParent() == null) {
+        assertNull(msg, n2.getParent());
+      } else {
+        assertEquals(msg, n.getParent().getId(), n2.getParent().getId());
+      }
+    }
+    assertFalse(msg, it.hasNext());
+  }
+
+  private static Tree<SimpleTreeNode> parse(List<String> lines) throws Exception {
+    return Tree.simple(new StringReader(String.join("\n", lines)));
+  }
+
+  private static List<String> lines(String resource) throws Exception {
+    return new ArrayList<>(Files.readAllLines(MappedLinesTest.path(resource), StandardCharsets.UTF_8));
+  }
+
+  private static String print(Tree<?> tree) throws Exception {
+    StringWriter buffer = new StringWriter();
+    tree.print(buffer);
+    return buffer.toString();
+  }
+}